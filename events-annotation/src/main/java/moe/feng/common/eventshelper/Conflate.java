@@ -0,0 +1,18 @@
+package moe.feng.common.eventshelper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Methods annotated with Conflate only deliver the latest call. If a call is still pending
+ * on its thread when a newer one arrives, the older arguments are dropped.
+ *
+ * It takes effect with methods of all thread types except
+ * {@link EventsOnThread#CURRENT_THREAD}.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Conflate {
+}
@@ -0,0 +1,19 @@
+package moe.feng.common.eventshelper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Parameter annotated with EventsKey routes calls of its method. Listeners registered with
+ * keys only receive calls whose key argument equals one of their keys, while listeners
+ * registered without keys receive all calls.
+ *
+ * A method can have one key parameter at most. Keys are compared by equals() of boxed values,
+ * so register keys of the boxed parameter type, e.g. Long for a long parameter.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface EventsKey {
+}
@@ -14,12 +14,33 @@ public @interface EventsOnThread {
     int MAIN_THREAD = 0;
     int NEW_THREAD = 1;
     int CURRENT_THREAD = 2;
+    /**
+     * Calls run on worker threads like {@link #NEW_THREAD}, but calls to the same listener
+     * are run one by one in the order they are made. Different listeners still run in parallel.
+     */
+    int SERIAL_THREAD = 3;
+    /**
+     * Calls run on an elastic pool for blocking work such as disk or network access. Workers
+     * are added while others are blocked, up to a limit, and released after being idle.
+     */
+    int IO_THREAD = 4;
+    /**
+     * Calls run on a pool sized by available processors, for CPU-bound listeners.
+     */
+    int COMPUTATION_THREAD = 5;
+    /**
+     * Calls run on main thread when its looper is idle, for low-priority UI work which
+     * shouldn't compete with rendering. Schedulers without idle support run them like
+     * {@link #MAIN_THREAD}.
+     */
+    int MAIN_IDLE_THREAD = 6;
 
     @ThreadType
     int value() default CURRENT_THREAD;
 
     @Retention(RetentionPolicy.SOURCE)
-    @IntDef({MAIN_THREAD, NEW_THREAD, CURRENT_THREAD})
+    @IntDef({MAIN_THREAD, NEW_THREAD, CURRENT_THREAD, SERIAL_THREAD,
+            IO_THREAD, COMPUTATION_THREAD, MAIN_IDLE_THREAD})
     @interface ThreadType {}
 
 }
@@ -0,0 +1,53 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.IntDef;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Bound pending calls of an asynchronous method per listener. When a listener already has
+ * {@link #capacity()} calls of this method waiting, the next call is handled by
+ * {@link #overflow()} policy, so a slow listener can't build up an unbounded backlog.
+ *
+ * It takes effect with methods of all thread types except
+ * {@link EventsOnThread#CURRENT_THREAD}.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface EventsQueue {
+
+    /**
+     * Block the publisher until the listener takes a pending call. It cannot be used for
+     * methods called on main thread. When the publisher is main thread, the call is dropped
+     * and reported to monitor of EventsBus instead of waiting.
+     */
+    int BLOCK = 0;
+    /**
+     * Drop the oldest pending call of the listener, then queue the new call
+     */
+    int DROP_OLDEST = 1;
+    /**
+     * Drop the new call
+     */
+    int DROP_NEWEST = 2;
+    /**
+     * Drop the new call and report it to monitor of EventsBus
+     */
+    int REPORT_AND_DROP = 3;
+
+    /**
+     * Maximum count of pending calls per listener
+     */
+    int capacity();
+
+    @OverflowPolicy
+    int overflow() default REPORT_AND_DROP;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({BLOCK, DROP_OLDEST, DROP_NEWEST, REPORT_AND_DROP})
+    @interface OverflowPolicy {}
+
+}
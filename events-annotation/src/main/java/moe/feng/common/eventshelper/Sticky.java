@@ -0,0 +1,23 @@
+package moe.feng.common.eventshelper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Methods annotated with Sticky keep their latest call per tag. Listeners registered later
+ * receive the kept call once when they are registered, on the thread of the method, so they
+ * don't need to query current state or wait for the next call.
+ *
+ * Registering a listener again the same way doesn't replay kept calls again, and a kept call
+ * is skipped if a newer call replaces it before it is replayed. Calls recorded in batches are
+ * kept when the batch is published.
+ *
+ * Kept calls are limited by sticky cache size of the bus, and the least recently updated ones
+ * are evicted first. It can't be used together with {@link EventsKey} parameters.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Sticky {
+}
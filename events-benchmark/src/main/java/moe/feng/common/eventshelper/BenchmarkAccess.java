@@ -0,0 +1,16 @@
+package moe.feng.common.eventshelper;
+
+/**
+ * Access to package-private parts of EventsBus for benchmarks
+ */
+public final class BenchmarkAccess {
+
+    private BenchmarkAccess() {
+        throw new InstantiationError();
+    }
+
+    public static <T> T proxyOf(EventsBus eventsBus, Class<T> listenerClass, String tag) {
+        return eventsBus.proxyOf(listenerClass, tag);
+    }
+
+}
@@ -0,0 +1,82 @@
+package moe.feng.common.eventshelper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import moe.feng.common.eventshelper.EventsBatch;
+import moe.feng.common.eventshelper.EventsBus;
+
+/**
+ * Cost of publishing {@link #eventCount} new thread calls to 10 listeners one by one, compared
+ * with recording them into a batch which schedules one task per listener. Both wait until
+ * every listener has received all events.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchDispatchBenchmark {
+
+    private static final int LISTENER_COUNT = 10;
+
+    @Param({"10", "1000"})
+    public int eventCount;
+
+    private final AtomicLong mReceived = new AtomicLong();
+
+    private EventsBus mEventsBus;
+    private AsyncBenchmarkListener mHelper;
+
+    @Setup
+    public void setUp() {
+        mEventsBus = BenchmarkContext.eventsBus();
+        mEventsBus.clearAllListeners();
+        for (int i = 0; i < LISTENER_COUNT; i++) {
+            mEventsBus.registerListener(new DispatchBenchmark.CountingListener(mReceived));
+        }
+        mHelper = mEventsBus.of(AsyncBenchmarkListener.class);
+    }
+
+    @Benchmark
+    public void separateCalls() {
+        long expected = mReceived.get() + (long) eventCount * LISTENER_COUNT;
+        for (int i = 0; i < eventCount; i++) {
+            mHelper.onEvent(i);
+        }
+        awaitReceived(expected);
+    }
+
+    @Benchmark
+    public void batch() {
+        long expected = mReceived.get() + (long) eventCount * LISTENER_COUNT;
+        EventsBatch<AsyncBenchmarkListener> batch =
+                mEventsBus.newBatch(AsyncBenchmarkListener.class);
+        AsyncBenchmarkListener recorder = batch.recorder();
+        for (int i = 0; i < eventCount; i++) {
+            recorder.onEvent(i);
+        }
+        batch.publish();
+        awaitReceived(expected);
+    }
+
+    private void awaitReceived(long expected) {
+        while (mReceived.get() < expected) {
+            Thread.yield();
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package moe.feng.common.eventshelper.benchmark;
+
+import moe.feng.common.eventshelper.EventsBus;
+
+/**
+ * Shared EventsBus used by benchmarks
+ */
+final class BenchmarkContext {
+
+    private static final EventsBus sEventsBus = new EventsBus();
+
+    private BenchmarkContext() {
+        throw new InstantiationError();
+    }
+
+    static EventsBus eventsBus() {
+        return sEventsBus;
+    }
+
+}
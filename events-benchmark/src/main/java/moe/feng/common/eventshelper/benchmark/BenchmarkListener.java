@@ -0,0 +1,10 @@
+package moe.feng.common.eventshelper.benchmark;
+
+import moe.feng.common.eventshelper.EventsListener;
+
+@EventsListener
+public interface BenchmarkListener {
+
+    void onEvent(int value);
+
+}
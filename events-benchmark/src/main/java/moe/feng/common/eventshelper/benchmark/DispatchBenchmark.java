@@ -0,0 +1,90 @@
+package moe.feng.common.eventshelper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import moe.feng.common.eventshelper.EventsBus;
+
+/**
+ * Dispatch cost of generated helpers. When tagged, the same count of listeners with another
+ * tag is registered too, and only listeners with the published tag receive events.
+ *
+ * {@link #newThread()} waits until every listener has received the event, so it measures
+ * the whole fan-out instead of the enqueue cost only.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int listenerCount;
+
+    @Param({"false", "true"})
+    public boolean tagged;
+
+    private final AtomicLong mReceived = new AtomicLong();
+
+    private BenchmarkListener mHelper;
+    private AsyncBenchmarkListener mAsyncHelper;
+
+    @Setup
+    public void setUp() {
+        EventsBus eventsBus = BenchmarkContext.eventsBus();
+        eventsBus.clearAllListeners();
+        String tag = tagged ? "tag" : null;
+        for (int i = 0; i < listenerCount; i++) {
+            eventsBus.registerListener(new CountingListener(mReceived), tag);
+            if (tagged) {
+                eventsBus.registerListener(new CountingListener(mReceived), "other");
+            }
+        }
+        mHelper = eventsBus.of(BenchmarkListener.class, tag);
+        mAsyncHelper = eventsBus.of(AsyncBenchmarkListener.class, tag);
+    }
+
+    @Benchmark
+    public void currentThread() {
+        mHelper.onEvent(1);
+    }
+
+    @Benchmark
+    public void newThread() {
+        long expected = mReceived.get() + listenerCount;
+        mAsyncHelper.onEvent(1);
+        while (mReceived.get() < expected) {
+            Thread.yield();
+        }
+    }
+
+    static final class CountingListener implements BenchmarkListener, AsyncBenchmarkListener {
+
+        private final AtomicLong mReceived;
+
+        CountingListener(AtomicLong received) {
+            mReceived = received;
+        }
+
+        @Override
+        public void onEvent(int value) {
+            mReceived.incrementAndGet();
+        }
+
+    }
+
+}
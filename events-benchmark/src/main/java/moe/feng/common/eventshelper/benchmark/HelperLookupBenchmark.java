@@ -0,0 +1,84 @@
+package moe.feng.common.eventshelper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import moe.feng.common.eventshelper.EventsBus;
+import moe.feng.common.eventshelper.EventsListener;
+
+/**
+ * Cost of <code>eventsBus.of(X.class).method()</code> with one listener registered.
+ * {@link #legacyLookup()} reproduces the lookup before helpers were cached per class:
+ * a global lock, reflective validation and an allocated key on every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HelperLookupBenchmark {
+
+    private static final Object sLegacyLock = new Object();
+
+    private final Map<Map.Entry<String, String>, Object> mLegacyCache = new HashMap<>();
+
+    @Setup
+    public void setUp() {
+        EventsBus eventsBus = BenchmarkContext.eventsBus();
+        eventsBus.clearAllListeners();
+        eventsBus.registerListener((BenchmarkListener) value -> {});
+        mLegacyCache.put(new AbstractMap.SimpleImmutableEntry<>(
+                        BenchmarkListener.class.getCanonicalName(), null),
+                eventsBus.of(BenchmarkListener.class));
+    }
+
+    @Benchmark
+    public void lookup() {
+        BenchmarkContext.eventsBus().of(BenchmarkListener.class).onEvent(1);
+    }
+
+    @Benchmark
+    public void lookupWithTag() {
+        BenchmarkContext.eventsBus().of(BenchmarkListener.class, "tag").onEvent(1);
+    }
+
+    @Benchmark
+    public void legacyLookup() {
+        EventsBus eventsBus;
+        synchronized (sLegacyLock) {
+            eventsBus = BenchmarkContext.eventsBus();
+        }
+        if (eventsBus == null) {
+            throw new NullPointerException("EventsHelper instance hasn't been initialized.");
+        }
+        legacyOf(BenchmarkListener.class).onEvent(1);
+    }
+
+    private <T> T legacyOf(Class<T> listenerClass) {
+        if (!listenerClass.isInterface()) {
+            throw new IllegalArgumentException("API declarations must be interfaces.");
+        }
+        if (listenerClass.getAnnotation(EventsListener.class) == null) {
+            throw new IllegalArgumentException("Objects registering should be " +
+                    "annotated with @EventsListener");
+        }
+        Map.Entry<String, String> key = new AbstractMap.SimpleImmutableEntry<>(
+                listenerClass.getCanonicalName(), null);
+        return listenerClass.cast(mLegacyCache.get(key));
+    }
+
+}
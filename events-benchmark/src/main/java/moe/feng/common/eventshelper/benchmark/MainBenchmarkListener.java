@@ -0,0 +1,12 @@
+package moe.feng.common.eventshelper.benchmark;
+
+import moe.feng.common.eventshelper.EventsListener;
+import moe.feng.common.eventshelper.EventsOnThread;
+
+@EventsListener
+public interface MainBenchmarkListener {
+
+    @EventsOnThread(EventsOnThread.MAIN_THREAD)
+    void onEvent(int value);
+
+}
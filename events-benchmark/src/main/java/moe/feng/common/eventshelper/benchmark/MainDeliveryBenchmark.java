@@ -0,0 +1,117 @@
+package moe.feng.common.eventshelper.benchmark;
+
+import androidx.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import moe.feng.common.eventshelper.EventsBus;
+import moe.feng.common.eventshelper.EventsScheduler;
+
+/**
+ * Publish-to-delivery latency of main thread calls published on main thread. The benchmark
+ * thread acts as main thread, whose scheduler queues calls until the benchmark drains them
+ * like a looper running the next message. With {@link #immediate} enabled, calls are
+ * delivered before the helper returns.
+ *
+ * On Android, scheduled calls also wait for messages and frames queued before them, which
+ * isn't included here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MainDeliveryBenchmark {
+
+    @Param({"1", "10"})
+    public int listenerCount;
+
+    @Param({"false", "true"})
+    public boolean immediate;
+
+    private LoopScheduler mScheduler;
+    private MainBenchmarkListener mHelper;
+    private long mReceived;
+
+    @Setup
+    public void setUp() {
+        mScheduler = new LoopScheduler(Thread.currentThread());
+        EventsBus eventsBus = new EventsBus(mScheduler);
+        eventsBus.setImmediateMainDelivery(immediate);
+        for (int i = 0; i < listenerCount; i++) {
+            eventsBus.registerListener(new CountingListener());
+        }
+        mHelper = eventsBus.of(MainBenchmarkListener.class);
+    }
+
+    @Benchmark
+    public long publishToDelivery() {
+        long expected = mReceived + listenerCount;
+        mHelper.onEvent(1);
+        mScheduler.drain();
+        if (mReceived != expected) {
+            throw new IllegalStateException("Listeners haven't received the event.");
+        }
+        return mReceived;
+    }
+
+    private final class CountingListener implements MainBenchmarkListener {
+
+        @Override
+        public void onEvent(int value) {
+            mReceived++;
+        }
+
+    }
+
+    /**
+     * Scheduler of benchmark thread, which runs calls when drained
+     */
+    private static final class LoopScheduler implements EventsScheduler {
+
+        private final Thread mThread;
+        private final ArrayDeque<Runnable> mQueue = new ArrayDeque<>();
+
+        LoopScheduler(Thread thread) {
+            mThread = thread;
+        }
+
+        @Override
+        public void schedule(@NonNull Runnable runnable) {
+            mQueue.add(runnable);
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return mQueue.size();
+        }
+
+        @Override
+        public boolean isCurrentThread() {
+            return Thread.currentThread() == mThread;
+        }
+
+        void drain() {
+            Runnable runnable;
+            while ((runnable = mQueue.poll()) != null) {
+                runnable.run();
+            }
+        }
+
+    }
+
+}
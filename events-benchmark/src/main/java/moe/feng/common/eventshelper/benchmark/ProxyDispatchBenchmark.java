@@ -0,0 +1,59 @@
+package moe.feng.common.eventshelper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import moe.feng.common.eventshelper.BenchmarkAccess;
+import moe.feng.common.eventshelper.EventsBus;
+
+/**
+ * Dispatch cost of reflection proxy compared with generated helper
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProxyDispatchBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int listenerCount;
+
+    private BenchmarkListener mHelper;
+    private BenchmarkListener mProxy;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        EventsBus eventsBus = BenchmarkContext.eventsBus();
+        eventsBus.clearAllListeners();
+        for (int i = 0; i < listenerCount; i++) {
+            eventsBus.registerListener((BenchmarkListener) blackhole::consume);
+        }
+        mHelper = eventsBus.of(BenchmarkListener.class);
+        mProxy = BenchmarkAccess.proxyOf(eventsBus, BenchmarkListener.class, null);
+    }
+
+    @Benchmark
+    public void generatedHelper() {
+        mHelper.onEvent(1);
+    }
+
+    @Benchmark
+    public void proxy() {
+        mProxy.onEvent(1);
+    }
+
+}
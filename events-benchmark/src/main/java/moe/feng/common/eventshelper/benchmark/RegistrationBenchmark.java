@@ -0,0 +1,88 @@
+package moe.feng.common.eventshelper.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import moe.feng.common.eventshelper.EventsBus;
+
+/**
+ * Cost of registering and unregistering listeners while other listeners are registered.
+ * Screen benchmarks register and unregister 100 listeners one by one or in bulk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistrationBenchmark {
+
+    @Param({"0", "10", "1000"})
+    public int registeredCount;
+
+    private EventsBus mEventsBus;
+
+    private final BenchmarkListener mListener = new NoopListener();
+
+    private final Object[] mScreenListeners = new Object[100];
+
+    @Setup
+    public void setUp() {
+        mEventsBus = BenchmarkContext.eventsBus();
+        mEventsBus.clearAllListeners();
+        for (int i = 0; i < registeredCount; i++) {
+            mEventsBus.registerListener(new NoopListener());
+        }
+        for (int i = 0; i < mScreenListeners.length; i++) {
+            mScreenListeners[i] = new NoopListener();
+        }
+    }
+
+    @Benchmark
+    public void registerAndUnregister() {
+        mEventsBus.registerListener(mListener);
+        mEventsBus.unregisterListener(mListener);
+    }
+
+    @Benchmark
+    public void registerAndUnregisterWithTag() {
+        mEventsBus.registerListener(mListener, "tag");
+        mEventsBus.unregisterListener(mListener);
+    }
+
+    @Benchmark
+    public void screenOneByOne() {
+        for (Object listener : mScreenListeners) {
+            mEventsBus.registerListener(listener);
+        }
+        for (Object listener : mScreenListeners) {
+            mEventsBus.unregisterListener(listener);
+        }
+    }
+
+    @Benchmark
+    public void screenInBulk() {
+        mEventsBus.registerListeners(mScreenListeners);
+        mEventsBus.unregisterListeners(mScreenListeners);
+    }
+
+    static final class NoopListener implements BenchmarkListener {
+
+        @Override
+        public void onEvent(int value) {
+        }
+
+    }
+
+}
@@ -5,15 +5,20 @@ import androidx.annotation.RestrictTo;
 import com.google.auto.service.AutoService;
 import com.squareup.javapoet.AnnotationSpec;
 import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.processing.AbstractProcessor;
@@ -32,6 +37,7 @@ import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
 import javax.tools.Diagnostic;
 
@@ -51,15 +57,44 @@ public class EventsAnnotationProcessor extends AbstractProcessor {
 
     static class ClassNames {
 
-        static final ClassName EventsHelper = ClassName.get(
-                "moe.feng.common.eventshelper", "EventsHelper");
+        static final ClassName EventsBus = ClassName.get(
+                "moe.feng.common.eventshelper", "EventsBus");
+        static final ClassName ConflatedCall = ClassName.get(
+                "moe.feng.common.eventshelper", "ConflatedCall");
+        static final ClassName EventsBatch = ClassName.get(
+                "moe.feng.common.eventshelper", "EventsBatch");
+        static final ClassName EventsBatchRecordable = ClassName.get(
+                "moe.feng.common.eventshelper", "EventsBatch", "Recordable");
+        static final ClassName BoundedQueueSpec = ClassName.get(
+                "moe.feng.common.eventshelper", "BoundedQueue", "Spec");
+        static final ClassName EventsJournal = ClassName.get(
+                "moe.feng.common.eventshelper", "EventsJournal");
+        static final ClassName EventsJournalReplayable = ClassName.get(
+                "moe.feng.common.eventshelper", "EventsJournal", "Replayable");
+        static final ClassName EventsJournalReader = ClassName.get(
+                "moe.feng.common.eventshelper", "EventsJournal", "Reader");
+        static final ClassName Subscription = ClassName.get(
+                "moe.feng.common.eventshelper", "Subscription");
+        static final ClassName EventsHelperIndex = ClassName.get(
+                "moe.feng.common.eventshelper", "EventsHelperIndex");
 
     }
 
+    /**
+     * Option of simple class name of generated helpers index. Index won't be generated if it
+     * isn't set.
+     */
+    static final String OPTION_INDEX = "eventsHelperIndex";
+
+    private static final String PACKAGE_NAME = "moe.feng.common.eventshelper";
+
     private Filer filer;
     private Messager messager;
     private Elements elements;
 
+    private final Map<TypeElement, String> indexedHelpers = new LinkedHashMap<>();
+    private boolean indexWritten = false;
+
     @Override
     public synchronized void init(ProcessingEnvironment processingEnvironment) {
         super.init(processingEnvironment);
@@ -68,6 +103,11 @@ public class EventsAnnotationProcessor extends AbstractProcessor {
         elements = processingEnvironment.getElementUtils();
     }
 
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(OPTION_INDEX);
+    }
+
     @Override
     public boolean process(Set<? extends TypeElement> set, RoundEnvironment env) {
         Collection<? extends Element> elements = env.getElementsAnnotatedWith(EventsListener.class);
@@ -80,39 +120,173 @@ public class EventsAnnotationProcessor extends AbstractProcessor {
             }
         }
 
+        // Listeners generated by other processors may come in later rounds, so the index is
+        // written once all rounds are done
+        String indexClassName = processingEnv.getOptions().get(OPTION_INDEX);
+        if (env.processingOver() && indexClassName != null && !indexWritten
+                && !indexedHelpers.isEmpty()) {
+            writeHelperIndex(indexClassName);
+            indexWritten = true;
+        }
+
         return true;
     }
 
+    private void writeHelperIndex(String indexClassName) {
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("newHelper")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(Object.class)
+                .addParameter(ParameterizedTypeName.get(ClassName.get(Class.class),
+                        WildcardTypeName.subtypeOf(Object.class)), "listenerClass")
+                .addParameter(String.class, "tag")
+                .addParameter(ClassNames.EventsBus, "eventsBus");
+        TypeSpec.Builder classBuilder = TypeSpec.classBuilder(indexClassName)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addSuperinterface(ClassNames.EventsHelperIndex);
+        for (Map.Entry<TypeElement, String> entry : indexedHelpers.entrySet()) {
+            TypeElement listenerElement = entry.getKey();
+            methodBuilder.beginControlFlow("if (listenerClass == $T.class)",
+                    ClassName.get(listenerElement))
+                    .addStatement("return new $T(tag, eventsBus)",
+                            ClassName.get(PACKAGE_NAME, entry.getValue()))
+                    .endControlFlow();
+            classBuilder.addOriginatingElement(listenerElement);
+        }
+        methodBuilder.addStatement("return null");
+        classBuilder.addMethod(methodBuilder.build());
+
+        try {
+            JavaFile.builder(PACKAGE_NAME, classBuilder.build())
+                    .build()
+                    .writeTo(filer);
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR,
+                    "Cannot write helpers index " + indexClassName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get signature of method written into journal
+     *
+     * @return Signature, or null if any parameter can't be journaled
+     */
+    private static String journalSignatureOf(ExecutableElement element) {
+        for (VariableElement variableElement : element.getParameters()) {
+            if (journalTypeOf(variableElement.asType()) == null) {
+                return null;
+            }
+        }
+        return signatureOf(element);
+    }
+
+    /**
+     * Get signature of method, such as <code>onStatus(int,java.lang.String)</code>
+     */
+    private static String signatureOf(ExecutableElement element) {
+        StringBuilder signature = new StringBuilder(element.getSimpleName()).append("(");
+        for (VariableElement variableElement : element.getParameters()) {
+            if (signature.charAt(signature.length() - 1) != '(') {
+                signature.append(",");
+            }
+            signature.append(variableElement.asType().toString());
+        }
+        return signature.append(")").toString();
+    }
+
+    /**
+     * Get suffix of EventsJournal put/get methods for type
+     *
+     * @return Suffix, or null if type can't be journaled
+     */
+    private static String journalTypeOf(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return "Boolean";
+            case BYTE:
+                return "Byte";
+            case SHORT:
+                return "Short";
+            case CHAR:
+                return "Char";
+            case INT:
+                return "Int";
+            case LONG:
+                return "Long";
+            case FLOAT:
+                return "Float";
+            case DOUBLE:
+                return "Double";
+            case DECLARED:
+                return String.class.getName().equals(type.toString()) ? "String" : null;
+            default:
+                return null;
+        }
+    }
+
     private void processEventsListener(TypeElement e) {
         // Prepare constants
         String listenerClassName = e.getQualifiedName().toString();
         TypeName listenerClassTypeName = TypeName.get(e.asType());
-        TypeName listOfListeners = ParameterizedTypeName.get(
-                ClassName.get(List.class), listenerClassTypeName);
 
         // Define helper class name
         String helperClassName = "Helper$$" + listenerClassName.replace(".", "_");
+        indexedHelpers.put(e, helperClassName);
 
         // Create fields and constructors definition of helper class
         TypeSpec.Builder classBuilder = TypeSpec.classBuilder(helperClassName)
                 .addModifiers(Modifier.FINAL)
+                .addOriginatingElement(e)
                 .addSuperinterface(listenerClassTypeName)
                 .addAnnotation(AnnotationSpec.builder(RestrictTo.class)
                         .addMember("value", "$L", "RestrictTo.Scope.LIBRARY_GROUP")
                         .build())
                 .addField(String.class, "mTag", Modifier.PRIVATE)
-                .addField(ClassNames.EventsHelper, "mEventsHelper", Modifier.PRIVATE)
+                .addField(ClassNames.EventsBus, "mEventsBus", Modifier.PRIVATE);
+        MethodSpec.Builder constructorBuilder = MethodSpec.constructorBuilder()
+                .addParameter(String.class, "tag")
+                .addParameter(ClassNames.EventsBus, "eventsBus")
+                .addStatement("this.$N = $N", "mTag", "tag")
+                .addStatement("this.$N = $N", "mEventsBus", "eventsBus");
+
+        // Helpers created with a batch record calls into it instead of delivering them
+        TypeName batchType = ParameterizedTypeName.get(
+                ClassNames.EventsBatch, listenerClassTypeName);
+        classBuilder.addSuperinterface(ParameterizedTypeName.get(
+                        ClassNames.EventsBatchRecordable, listenerClassTypeName))
+                .addField(batchType, "mBatch", Modifier.PRIVATE)
                 .addMethod(MethodSpec.constructorBuilder()
                         .addParameter(String.class, "tag")
-                        .addParameter(ClassNames.EventsHelper, "eventsHelper")
-                        .addStatement("this.$N = $N", "mTag", "tag")
-                        .addStatement("this.$N = $N", "mEventsHelper", "eventsHelper")
+                        .addParameter(ClassNames.EventsBus, "eventsBus")
+                        .addStatement("this($N, $N, null)", "tag", "eventsBus")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("newRecorder")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(listenerClassTypeName)
+                        .addParameter(batchType, "batch")
+                        .addStatement("return new $N($N, $N, $N)",
+                                helperClassName, "mTag", "mEventsBus", "batch")
                         .build());
+        constructorBuilder.addParameter(batchType, "batch")
+                .addStatement("this.$N = $N", "mBatch", "batch");
+
+        // Helpers replay journaled calls by calling their own methods
+        classBuilder.addSuperinterface(ClassNames.EventsJournalReplayable);
+        MethodSpec.Builder replayBuilder = MethodSpec.methodBuilder("replay")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(boolean.class)
+                .addParameter(String.class, "method")
+                .addParameter(ClassNames.EventsJournalReader, "reader")
+                .beginControlFlow("switch (method)");
 
         // Implement methods of listener interface
+        int methodIndex = -1;
         for (Element enclosedElement : e.getEnclosedElements()) {
             if (enclosedElement.getKind() == ElementKind.METHOD) {
                 ExecutableElement element = (ExecutableElement) enclosedElement;
+                methodIndex++;
 
                 // Check if this method should be ignored
                 Ignore ignoreAnnotation = element.getAnnotation(Ignore.class);
@@ -140,33 +314,259 @@ public class EventsAnnotationProcessor extends AbstractProcessor {
                 if (threadAnnotation != null) {
                     threadType = threadAnnotation.value();
                 }
+                if (threadType < EventsOnThread.MAIN_THREAD
+                        || threadType > EventsOnThread.MAIN_IDLE_THREAD) {
+                    messager.printMessage(Diagnostic.Kind.ERROR,
+                            "Method " + element.getSimpleName() + " in " + listenerClassName
+                                    + " class has unknown thread type " + threadType + ".",
+                            element);
+                }
 
-                // Create schedule runnable statement
-                StringBuilder invokeStatement = new StringBuilder();
-                invokeStatement.append("mEventsHelper.scheduleRunnable(() -> listener.");
-                invokeStatement.append(element.getSimpleName()).append("(");
+                // Create listener call statement
+                String methodName = element.getSimpleName().toString();
+                StringBuilder callStatement = new StringBuilder();
+                callStatement.append("listener.").append(methodName).append("(");
                 List<? extends VariableElement> parameters = element.getParameters();
                 if (parameters != null && !parameters.isEmpty()) {
                     for (VariableElement variableElement : element.getParameters()) {
-                        invokeStatement.append(variableElement.getSimpleName()).append(", ");
+                        callStatement.append(variableElement.getSimpleName()).append(", ");
                     }
-                    invokeStatement.setLength(invokeStatement.length() - 2);
+                    callStatement.setLength(callStatement.length() - 2);
                 }
-                invokeStatement.append("), ").append(threadType).append(")");
+                callStatement.append(")");
 
-                classBuilder.addMethod(MethodSpec.overriding(element)
-                        .addStatement("$T listeners = $N.getListenersByClass($T.class, $N)",
-                                listOfListeners, "mEventsHelper", listenerClassTypeName, "mTag")
-                        .beginControlFlow("for ($T listener : listeners)", listenerClassTypeName)
-                        .addStatement(invokeStatement.toString())
-                        .endControlFlow()
-                        .build());
+                // Find routing key parameter
+                VariableElement keyParameter = null;
+                for (VariableElement variableElement : element.getParameters()) {
+                    if (variableElement.getAnnotation(EventsKey.class) == null) {
+                        continue;
+                    }
+                    if (keyParameter != null) {
+                        messager.printMessage(Diagnostic.Kind.ERROR,
+                                "Method " + methodName + " in " + listenerClassName
+                                        + " class has more than one @EventsKey parameter.",
+                                element);
+                    }
+                    keyParameter = variableElement;
+                }
+
+                // Current thread calls are delivered inline, so nothing waits to be queued
+                if (threadType == EventsOnThread.CURRENT_THREAD
+                        && (element.getAnnotation(EventsQueue.class) != null
+                        || element.getAnnotation(Conflate.class) != null)) {
+                    messager.printMessage(Diagnostic.Kind.WARNING,
+                            "@EventsQueue and @Conflate on method " + methodName + " in "
+                                    + listenerClassName + " class have no effect on current "
+                                    + "thread.",
+                            element);
+                }
+
+                // Bounded methods queue calls per listener and apply overflow policy
+                EventsQueue queueAnnotation = element.getAnnotation(EventsQueue.class);
+                String queueSpecName = null;
+                if (queueAnnotation != null && threadType != EventsOnThread.CURRENT_THREAD) {
+                    if (element.getAnnotation(Conflate.class) != null) {
+                        messager.printMessage(Diagnostic.Kind.ERROR,
+                                "Method " + methodName + " in " + listenerClassName
+                                        + " class cannot be both conflated and bounded.",
+                                element);
+                    }
+                    if (queueAnnotation.overflow() == EventsQueue.BLOCK
+                            && (threadType == EventsOnThread.MAIN_THREAD
+                            || threadType == EventsOnThread.MAIN_IDLE_THREAD)) {
+                        // Main thread would wait for itself to take pending calls
+                        messager.printMessage(Diagnostic.Kind.ERROR,
+                                "Method " + methodName + " in " + listenerClassName
+                                        + " class called on main thread cannot block "
+                                        + "with @EventsQueue.",
+                                element);
+                    }
+                    if (queueAnnotation.capacity() <= 0) {
+                        messager.printMessage(Diagnostic.Kind.ERROR,
+                                "Capacity of @EventsQueue on method " + methodName + " in "
+                                        + listenerClassName + " class should be positive.",
+                                element);
+                    }
+                    queueSpecName = "sQueue" + methodIndex;
+                    classBuilder.addField(FieldSpec.builder(ClassNames.BoundedQueueSpec,
+                            queueSpecName, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                            .initializer("new $T($L, $L)", ClassNames.BoundedQueueSpec,
+                                    queueAnnotation.capacity(), queueAnnotation.overflow())
+                            .build());
+                }
+
+                // Record call if this helper is a batch recorder
+                MethodSpec.Builder methodBuilder = MethodSpec.overriding(element)
+                        .beginControlFlow("if ($N != null)", "mBatch");
+                String recordedQueueSpec = queueSpecName != null ? queueSpecName : "null";
+                // Sticky calls are kept when batch is published
+                String stickySignature = element.getAnnotation(Sticky.class) != null
+                        ? signatureOf(element) : null;
+                if (keyParameter != null) {
+                    methodBuilder.addStatement("$N.recordKeyed(listener -> $L, $S, $L, $L, $N)",
+                            "mBatch", callStatement.toString(), methodName, threadType,
+                            recordedQueueSpec, keyParameter.getSimpleName().toString());
+                } else {
+                    methodBuilder.addStatement("$N.record(listener -> $L, $S, $L, $L, $S)",
+                            "mBatch", callStatement.toString(), methodName, threadType,
+                            recordedQueueSpec, stickySignature);
+                }
+                methodBuilder.addStatement("return").endControlFlow();
+
+                // Journal calls of methods whose arguments can be encoded
+                String journalSignature = journalSignatureOf(element);
+                if (journalSignature != null) {
+                    methodBuilder.addStatement("final $T journal = $N.getJournal()",
+                                    ClassNames.EventsJournal, "mEventsBus")
+                            .beginControlFlow("if (journal != null)")
+                            .addStatement("journal.begin($T.class, $S, $N)",
+                                    listenerClassTypeName, journalSignature, "mTag");
+                    StringBuilder replayArguments = new StringBuilder();
+                    if (element.getParameters().isEmpty()) {
+                        // Nothing can throw between begin and commit
+                        methodBuilder.addStatement("journal.commit()");
+                    } else {
+                        methodBuilder.beginControlFlow("try");
+                        for (VariableElement variableElement : element.getParameters()) {
+                            String journalType = journalTypeOf(variableElement.asType());
+                            methodBuilder.addStatement("journal.put$L($N)", journalType,
+                                    variableElement.getSimpleName().toString());
+                            if (replayArguments.length() > 0) {
+                                replayArguments.append(", ");
+                            }
+                            replayArguments.append("reader.get").append(journalType)
+                                    .append("()");
+                        }
+                        methodBuilder.nextControlFlow("finally")
+                                .addStatement("journal.commit()")
+                                .endControlFlow();
+                    }
+                    methodBuilder.endControlFlow();
+                    replayBuilder.addCode("case $S:\n", journalSignature)
+                            .addStatement("$>$N($L)", methodName, replayArguments.toString())
+                            .addStatement("return true$<");
+                }
+
+                // Sticky methods keep the latest call for listeners registered later, and take
+                // subscriptions with it so listeners registered meanwhile receive it once
+                boolean sticky = element.getAnnotation(Sticky.class) != null;
+                if (sticky) {
+                    if (keyParameter != null) {
+                        messager.printMessage(Diagnostic.Kind.ERROR,
+                                "Method " + methodName + " in " + listenerClassName
+                                        + " class cannot be sticky with @EventsKey.",
+                                element);
+                    }
+                    methodBuilder.addStatement(
+                            "$T[] subscriptions = $N.putSticky($T.class, $S, $N, $L, "
+                                    + "listener -> $L)",
+                            ClassNames.Subscription, "mEventsBus", listenerClassTypeName,
+                            signatureOf(element), "mTag", threadType,
+                            callStatement.toString());
+                }
+
+                // Conflated methods keep the latest call only and deliver it once
+                if (queueSpecName == null && element.getAnnotation(Conflate.class) != null
+                        && threadType != EventsOnThread.CURRENT_THREAD) {
+                    if (keyParameter != null) {
+                        // Calls with different keys shouldn't replace each other
+                        messager.printMessage(Diagnostic.Kind.ERROR,
+                                "Method " + methodName + " in " + listenerClassName
+                                        + " class cannot be conflated with @EventsKey.",
+                                element);
+                    }
+                    String slotName = "mConflated" + methodIndex;
+                    TypeName slotType = ParameterizedTypeName.get(
+                            ClassNames.ConflatedCall, listenerClassTypeName);
+                    classBuilder.addField(slotType, slotName, Modifier.PRIVATE, Modifier.FINAL);
+                    constructorBuilder.addStatement(
+                            "this.$N = new $T<>($T.class, $S, $N, $L, $N)",
+                            slotName, ClassNames.ConflatedCall, listenerClassTypeName,
+                            methodName, "tag", threadType, "eventsBus");
+                    classBuilder.addMethod(methodBuilder
+                            .addStatement(sticky ? "$N.schedule(listener -> $L, subscriptions)"
+                                            : "$N.schedule(listener -> $L)",
+                                    slotName, callStatement.toString())
+                            .build());
+                    continue;
+                }
+
+                // Iterate subscriptions snapshot without allocating.
+                // Methods called on current thread are invoked directly instead of wrapping
+                // calls into runnables.
+                // Keyed methods only look up subscribers of the key argument, and sticky methods
+                // have taken them already.
+                if (keyParameter != null && !sticky) {
+                    methodBuilder.addStatement(
+                            "$T[] subscriptions = $N.getSubscriptions($T.class, $N, $N)",
+                            ClassNames.Subscription, "mEventsBus", listenerClassTypeName,
+                            "mTag", keyParameter.getSimpleName().toString());
+                } else if (!sticky) {
+                    methodBuilder.addStatement(
+                            "$T[] subscriptions = $N.getSubscriptions($T.class, $N)",
+                            ClassNames.Subscription, "mEventsBus", listenerClassTypeName,
+                            "mTag");
+                }
+                methodBuilder.addStatement("$N.onPublish($T.class, $S, $N)",
+                        "mEventsBus", listenerClassTypeName, methodName, "mTag");
+                if (threadType != EventsOnThread.CURRENT_THREAD) {
+                    methodBuilder.addStatement("final long scheduledTime = $N.beginDelivery()",
+                            "mEventsBus");
+                }
+                methodBuilder.beginControlFlow("for ($T subscription : subscriptions)",
+                                ClassNames.Subscription)
+                        .addStatement("final $T listener = ($T) subscription.get()",
+                                listenerClassTypeName, listenerClassTypeName)
+                        .beginControlFlow("if (listener == null)")
+                        .addStatement("continue")
+                        .endControlFlow();
+                if (threadType == EventsOnThread.CURRENT_THREAD) {
+                    // Record deliveries whose listeners throw too
+                    methodBuilder.addStatement("final long startTime = $N.beginDelivery()",
+                                    "mEventsBus")
+                            .beginControlFlow("try")
+                            .addStatement(callStatement.toString())
+                            .nextControlFlow("finally")
+                            .addStatement("$N.endDelivery($T.class, $S, $N, $L, startTime)",
+                                    "mEventsBus", listenerClassTypeName, methodName,
+                                    "mTag", threadType)
+                            .endControlFlow();
+                } else {
+                    // Asynchronous deliveries record their own queued and execution time, so
+                    // monitoring doesn't wrap them into another runnable
+                    if (queueSpecName != null) {
+                        methodBuilder.addCode("$N.scheduleBounded(subscription, $N, () -> {\n$>",
+                                "mEventsBus", queueSpecName);
+                    } else {
+                        methodBuilder.addCode("$N.scheduleDelivery(subscription, () -> {\n$>",
+                                "mEventsBus");
+                    }
+                    methodBuilder.addStatement("final long startTime = $N.beginDelivery()",
+                                    "mEventsBus")
+                            .beginControlFlow("try")
+                            .addStatement(callStatement.toString())
+                            .nextControlFlow("finally")
+                            .addStatement("$N.endDelivery($T.class, $S, $N, $L, scheduledTime, "
+                                            + "startTime)",
+                                    "mEventsBus", listenerClassTypeName, methodName,
+                                    "mTag", threadType)
+                            .endControlFlow()
+                            .addCode("$<}, $L, $T.class, $S, $N);\n", threadType,
+                                    listenerClassTypeName, methodName, "mTag");
+                }
+                classBuilder.addMethod(methodBuilder.endControlFlow().build());
             }
         }
 
+        classBuilder.addMethod(constructorBuilder.build())
+                .addMethod(replayBuilder.addCode("default:\n")
+                        .addStatement("$>return false$<")
+                        .endControlFlow()
+                        .build());
+
         // Write helper class to java file
         try {
-            JavaFile.builder("moe.feng.common.eventshelper", classBuilder.build())
+            JavaFile.builder(PACKAGE_NAME, classBuilder.build())
                     .build()
                     .writeTo(filer);
         } catch (IOException e1) {
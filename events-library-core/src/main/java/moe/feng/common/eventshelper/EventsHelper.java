@@ -3,42 +3,31 @@ package moe.feng.common.eventshelper;
 import android.app.Application;
 import android.content.Context;
 import android.os.Handler;
-import android.util.Pair;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-
 import static java.util.Objects.requireNonNull;
 
 /**
+ * Events bus of Android application. {@link EventsOnThread#MAIN_THREAD} calls are scheduled
+ * to the main looper, and {@link EventsOnThread#MAIN_IDLE_THREAD} calls run when the main
+ * looper is idle.
+ *
+ * {@link #getInstance(Context)} returns the shared bus of application. Features which don't
+ * need to talk to others can create their own buses by constructor, so they have separated
+ * listeners, helpers and executors.
+ *
  * @author Fung Gwo (fythonx@gmail.com)
+ * @see EventsBus
  */
-public final class EventsHelper {
-
-    private static final String TAG = EventsHelper.class.getSimpleName();
-    private static final String PACKAGE_NAME = requireNonNull(EventsHelper.class.getPackage()).getName();
-
-    private static final boolean sUseProxyInterface = false;
+public final class EventsHelper extends EventsBus {
 
     @Nullable
-    private static EventsHelper sInstance = null;
+    private static volatile EventsHelper sInstance = null;
     private static final Object sLock = new Object();
 
-    private final HashMap<Object, String> mListeners = new HashMap<>();
-
-    private final Map<Pair<String, String>, Object> mHelperCache = new HashMap<>();
-
-    private final Handler mMainHandler;
+    private final MainThreadQueue mMainQueue;
 
     /**
      * Get an instance of EventsHelper by context
@@ -48,6 +37,10 @@ public final class EventsHelper {
      */
     @NonNull
     public static EventsHelper getInstance(@Nullable Context context) {
+        EventsHelper instance = sInstance;
+        if (instance != null) {
+            return instance;
+        }
         synchronized (sLock) {
             if (sInstance == null) {
                 if (context == null) {
@@ -72,236 +65,38 @@ public final class EventsHelper {
      */
     @NonNull
     public static EventsHelper getInstance() {
-        synchronized (sLock) {
-            if (sInstance == null) {
-                throw new NullPointerException("EventsHelper instance hasn't been initialized.");
-            }
-            return sInstance;
-        }
-    }
-
-    private static <T> void validateListenerInterface(Class<T> listenerClass) {
-        if (!listenerClass.isInterface()) {
-            throw new IllegalArgumentException("API declarations must be interfaces.");
-        }
-
-        if (listenerClass.getAnnotation(EventsListener.class) == null) {
-            throw new IllegalArgumentException("Objects registering should be " +
-                    "annotated with @EventsListener");
+        EventsHelper instance = sInstance;
+        if (instance == null) {
+            throw new NullPointerException("EventsHelper instance hasn't been initialized.");
         }
-    }
-
-    private static <T> void validateListenerInstance(T listener) {
-        Class<?>[] interfaces = listener.getClass().getInterfaces();
-        boolean implementedEventsListener = false;
-        for (Class<?> interfaceClass : interfaces) {
-            implementedEventsListener = interfaceClass.getAnnotation(EventsListener.class) != null;
-            if (implementedEventsListener) {
-                break;
-            }
-        }
-        if (!implementedEventsListener) {
-            throw new IllegalArgumentException(
-                    "This listener isn't annotated with EventsListener.");
-        }
-    }
-
-    private EventsHelper(@NonNull Context context) {
-        requireNonNull(context);
-        mMainHandler = new Handler(context.getMainLooper());
-    }
-
-    /**
-     * Register events listener
-     *
-     * @param listener Object implemented a interface annotated with {@link EventsListener}
-     */
-    public void registerListener(@NonNull Object listener) {
-        registerListener(listener, null);
-    }
-
-
-    /**
-     * Register list of events listeners
-     *
-     * @param listeners Objects implemented a interface annotated with {@link EventsListener}
-     */
-    public void registerListeners(@NonNull Object... listeners) {
-        requireNonNull(listeners, "Listeners argument cannot be null.");
-        for (Object listener : listeners) {
-            registerListener(listener);
-        }
-    }
-
-
-    /**
-     * Register events listener with a tag
-     *
-     * @param listener Object implemented a interface annotated with {@link EventsListener}
-     * @param tag A tag name of object
-     */
-    public void registerListener(@NonNull Object listener, @Nullable String tag) {
-        requireNonNull(listener, "Listener argument cannot be null.");
-        validateListenerInstance(listener);
-        mListeners.put(listener, tag);
-    }
-
-    /**
-     * Unregister events listener
-     *
-     * @param listener Object to unregister
-     */
-    public void unregisterListener(@NonNull Object listener) {
-        requireNonNull(listener, "Listener argument cannot be null.");
-        mListeners.remove(listener);
+        return instance;
     }
 
     /**
-     * Unregister list of events listeners
+     * Create an independent EventsHelper. Listeners registered to it are only called by its
+     * own helpers.
      *
-     * @param listeners Objects to unregister
-     */
-    public void unregisterListeners(@NonNull Object... listeners) {
-        requireNonNull(listeners, "Listeners argument cannot be null.");
-        for (Object listener : listeners) {
-            mListeners.remove(listener);
-        }
-    }
-
-    /**
-     * Clear all events listeners
+     * @param context Context
+     * @see #getInstance(Context)
      */
-    public void clearAllListeners() {
-        mListeners.clear();
+    public EventsHelper(@NonNull Context context) {
+        this(new MainThreadQueue(new Handler(requireNonNull(context).getMainLooper())));
     }
 
-    /**
-     * Get events helper of specific listener type. Calling methods in helper will schedule
-     * calls to all specific listeners.
-     *
-     * @param listenerClass The class of specific listener type
-     * @param <T> Listener type
-     * @return Events helper
-     */
-    public <T> T of(@NonNull Class<T> listenerClass) {
-        return of(listenerClass, null);
+    private EventsHelper(@NonNull MainThreadQueue mainQueue) {
+        super(mainQueue);
+        mMainQueue = mainQueue;
     }
 
-
     /**
-     * Get events helper of specific listener type and tag.
+     * Set whether main thread calls should be delivered at the next frame. Calls scheduled
+     * before a drain are always delivered together in one looper message, and enabling this
+     * aligns the drain with {@link android.view.Choreographer} frames.
      *
-     * @param listenerClass The class of specific listener type
-     * @param tag Specific tag name
-     * @param <T> Listener type
-     * @return Events helper
-     * @see EventsHelper#of(Class)
+     * @param frameAligned Whether main thread calls should be aligned to frames
      */
-    public <T> T of(@NonNull Class<T> listenerClass, @Nullable String tag) {
-        validateListenerInterface(listenerClass);
-
-        if (sUseProxyInterface) {
-            return proxyOf(listenerClass, tag);
-        } else {
-            String listenerClassName = requireNonNull(listenerClass.getCanonicalName());
-            Pair<String, String> key = Pair.create(listenerClassName, tag);
-            if (mHelperCache.containsKey(key)) {
-                return (T) mHelperCache.get(key);
-            } else {
-                try {
-                    String helperClassName = PACKAGE_NAME + ".Helper$$"
-                            + listenerClassName.replace(".", "_");
-                    Class helperClass = Class.forName(helperClassName);
-                    Constructor<T> constructor = helperClass.getDeclaredConstructor(
-                            String.class, EventsHelper.class);
-                    T instance = constructor.newInstance(tag, this);
-                    mHelperCache.put(key, instance);
-                    return instance;
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        }
-    }
-
-    <T> List<T> getListenersByClass(Class<T> listenerClass) {
-        return getListenersByClass(listenerClass, null);
-    }
-
-    <T> List<T> getListenersByClass(Class<T> listenerClass, String tag) {
-        List<T> list = new ArrayList<>();
-        for (Map.Entry<Object, String> entry : mListeners.entrySet()) {
-            if (listenerClass.isInstance(entry.getKey())) {
-                if (tag != null && !Objects.equals(tag, entry.getValue())) {
-                    continue;
-                }
-                list.add((T) entry.getKey());
-            }
-        }
-        return list;
-    }
-
-    void scheduleRunnable(Runnable runnable, @EventsOnThread.ThreadType int threadType) {
-        if (threadType == EventsOnThread.CURRENT_THREAD) {
-            runnable.run();
-        } else if (threadType == EventsOnThread.NEW_THREAD) {
-            new Thread(runnable).start();
-        } else if (threadType == EventsOnThread.MAIN_THREAD) {
-            requireNonNull(mMainHandler, "You should call EventsHelper#init(Context) " +
-                    "before calling methods on main thread");
-            mMainHandler.post(runnable);
-        }
-    }
-
-    private <T> T proxyOf(Class<T> listenerClass, String tag) {
-        return (T) Proxy.newProxyInstance(listenerClass.getClassLoader(),
-                new Class<?>[]{ listenerClass },
-                new ListenerInvocationHandler(listenerClass, tag));
-    }
-
-    private class ListenerInvocationHandler implements InvocationHandler {
-
-        private Class<?> listenerClass;
-        private String tag;
-
-        ListenerInvocationHandler(Class<?> listenerClass, String tag) {
-            this.listenerClass = listenerClass;
-            this.tag = tag;
-        }
-
-        @Override
-        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-            Ignore ignoreAnnotation = method.getAnnotation(Ignore.class);
-            if (ignoreAnnotation != null) {
-                throw new UnsupportedOperationException("Method " + method + " is ignored. "
-                        + "If you want to call this method by helpers, "
-                        + "please remove @Ignore annotation from interface.");
-            }
-
-            if (method.getReturnType() != Void.class) {
-                throw new UnsupportedOperationException("Method " + method + " in "
-                        + listenerClass
-                        + " class doesn't return void type.");
-            }
-
-            EventsOnThread annotation = method.getAnnotation(EventsOnThread.class);
-            int threadType = EventsOnThread.CURRENT_THREAD;
-            if (annotation != null) {
-                threadType = annotation.value();
-            }
-
-            for (Object listener : getListenersByClass(listenerClass, tag)) {
-                scheduleRunnable(() -> {
-                    try {
-                        method.invoke(listener, args);
-                    } catch (Exception e) {
-                        throw new RuntimeException();
-                    }
-                }, threadType);
-            }
-            return null;
-        }
-
+    public void setFrameAlignedMainDelivery(boolean frameAligned) {
+        mMainQueue.setFrameAligned(frameAligned);
     }
 
 }
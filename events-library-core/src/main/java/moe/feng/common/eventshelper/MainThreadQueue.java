@@ -0,0 +1,177 @@
+package moe.feng.common.eventshelper;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pending main thread deliveries. Deliveries enqueued before the queue gets drained share one
+ * looper message (or one frame callback when frame alignment is enabled), instead of posting a
+ * message per listener.
+ *
+ * Idle deliveries wait in a separated queue, which is drained by an
+ * {@link MessageQueue.IdleHandler} only when the looper has no pending messages.
+ *
+ * This is the {@link EventsScheduler} of main thread used by {@link EventsHelper}.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ */
+final class MainThreadQueue implements EventsScheduler, Runnable, Choreographer.FrameCallback {
+
+    /**
+     * Maximum count of deliveries run by one drain. Remaining deliveries will be drained in
+     * the next message, so the looper still gets chances to render frames under bursts.
+     */
+    private static final int MAX_DRAIN_COUNT = 256;
+
+    /**
+     * Maximum time spent by one idle drain. Remaining idle deliveries will be drained the next
+     * time the looper is idle, so they don't delay messages arriving meanwhile.
+     */
+    private static final long MAX_IDLE_DRAIN_MILLIS = 4L;
+
+    private final Handler mHandler;
+
+    private final ConcurrentLinkedQueue<Runnable> mQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mSize = new AtomicInteger();
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    private final ConcurrentLinkedQueue<Runnable> mIdleQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mIdleSize = new AtomicInteger();
+    private final AtomicBoolean mIdleScheduled = new AtomicBoolean();
+    private final IdleDrain mIdleDrain = new IdleDrain();
+
+    private volatile boolean mFrameAligned = false;
+    private volatile Choreographer mChoreographer;
+
+    MainThreadQueue(@NonNull Handler handler) {
+        mHandler = handler;
+    }
+
+    void setFrameAligned(boolean frameAligned) {
+        mFrameAligned = frameAligned;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return mSize.get();
+    }
+
+    @Override
+    public void schedule(@NonNull Runnable runnable) {
+        mQueue.offer(runnable);
+        mSize.incrementAndGet();
+        scheduleDrain();
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return Looper.myLooper() == mHandler.getLooper();
+    }
+
+    @Override
+    public int getIdleQueueDepth() {
+        return mIdleSize.get();
+    }
+
+    @Override
+    public void scheduleIdle(@NonNull Runnable runnable) {
+        mIdleQueue.offer(runnable);
+        mIdleSize.incrementAndGet();
+        scheduleIdleDrain();
+    }
+
+    private void scheduleIdleDrain() {
+        if (mIdleScheduled.compareAndSet(false, true)) {
+            // Idle handler can only be added to queue of current looper before API 23
+            mHandler.post(mIdleDrain);
+        }
+    }
+
+    private void scheduleDrain() {
+        if (!mScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        Choreographer choreographer = mChoreographer;
+        if (mFrameAligned && choreographer != null) {
+            choreographer.postFrameCallback(this);
+        } else {
+            mHandler.post(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        run();
+    }
+
+    @Override
+    public void run() {
+        if (mFrameAligned && mChoreographer == null) {
+            // Choreographer can only be obtained on the thread it belongs to
+            mChoreographer = Choreographer.getInstance();
+        }
+        mScheduled.set(false);
+        try {
+            Runnable runnable;
+            int count = 0;
+            while (count < MAX_DRAIN_COUNT && (runnable = mQueue.poll()) != null) {
+                mSize.decrementAndGet();
+                count++;
+                runnable.run();
+            }
+        } finally {
+            if (!mQueue.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    /**
+     * Run idle deliveries until the time budget is used up. Called by the idle handler when
+     * the looper is idle, and remaining deliveries are scheduled to the next idle time.
+     */
+    void drainIdle() {
+        mIdleScheduled.set(false);
+        try {
+            long deadline = SystemClock.uptimeMillis() + MAX_IDLE_DRAIN_MILLIS;
+            Runnable runnable;
+            while ((runnable = mIdleQueue.poll()) != null) {
+                mIdleSize.decrementAndGet();
+                runnable.run();
+                if (SystemClock.uptimeMillis() >= deadline) {
+                    break;
+                }
+            }
+        } finally {
+            if (!mIdleQueue.isEmpty()) {
+                scheduleIdleDrain();
+            }
+        }
+    }
+
+    private final class IdleDrain implements Runnable, MessageQueue.IdleHandler {
+
+        @Override
+        public void run() {
+            Looper.myQueue().addIdleHandler(this);
+        }
+
+        @Override
+        public boolean queueIdle() {
+            drainIdle();
+            // Added again by the next drain message
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+package moe.feng.common.eventshelper;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class MainThreadQueueTest {
+
+    private Handler mHandler;
+    private MainThreadQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mHandler = new Handler(Looper.getMainLooper());
+        mQueue = new MainThreadQueue(mHandler);
+    }
+
+    @Test
+    public void drainsAtMost256DeliveriesPerMessage() {
+        List<Integer> received = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            int index = i;
+            mQueue.schedule(() -> {
+                received.add(index);
+                if (index == 0) {
+                    // Posted during the first drain, so it runs between the two drains
+                    mHandler.post(() -> received.add(-1));
+                }
+            });
+        }
+        assertEquals(300, mQueue.getQueueDepth());
+        assertTrue(received.isEmpty());
+
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(301, received.size());
+        assertEquals(255, (int) received.get(255));
+        assertEquals(-1, (int) received.get(256));
+        assertEquals(256, (int) received.get(257));
+        assertEquals(0, mQueue.getQueueDepth());
+    }
+
+    @Test
+    public void idleDrainStopsAfterBudgetAndReschedules() {
+        List<Integer> received = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int index = i;
+            mQueue.scheduleIdle(() -> {
+                received.add(index);
+                // Use up the time budget of an idle drain
+                SystemClock.sleep(5);
+            });
+        }
+        assertEquals(3, mQueue.getIdleQueueDepth());
+        // Regular deliveries don't wait for idle ones
+        assertEquals(0, mQueue.getQueueDepth());
+
+        // Called by the idle handler when the looper is idle
+        mQueue.drainIdle();
+        assertEquals(1, received.size());
+        assertEquals(2, mQueue.getIdleQueueDepth());
+        // Remaining deliveries wait for the next idle time
+        assertTrue(mHandler.hasMessages(0));
+
+        mQueue.drainIdle();
+        mQueue.drainIdle();
+        assertEquals(3, received.size());
+        assertEquals(2, (int) received.get(2));
+        assertEquals(0, mQueue.getIdleQueueDepth());
+    }
+
+    @Test
+    public void idleDrainRunsCheapDeliveriesTogether() {
+        List<Integer> received = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int index = i;
+            mQueue.scheduleIdle(() -> received.add(index));
+        }
+
+        mQueue.drainIdle();
+
+        assertEquals(10, received.size());
+        assertEquals(0, mQueue.getIdleQueueDepth());
+    }
+
+}
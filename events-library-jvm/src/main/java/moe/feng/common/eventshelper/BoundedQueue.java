@@ -0,0 +1,206 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Pending calls of a method annotated with {@link EventsQueue} to one listener. Every call
+ * accepted by {@link #offer(Runnable, boolean)} has a drain task scheduled to its thread, and
+ * each run of this queue takes the oldest pending call, so threading of the method stays the
+ * same.
+ *
+ * Calls of batches take room by {@link #reserve(boolean)} instead. They are delivered in
+ * order with other calls by the task of their batch, which releases the room first.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ */
+final class BoundedQueue implements Runnable {
+
+    /**
+     * Call is queued and a drain should be scheduled
+     */
+    static final int QUEUED = 0;
+    /**
+     * Call replaced the oldest pending call, whose drain is already scheduled. A call which
+     * replaced a reservation is {@link #QUEUED} instead.
+     */
+    static final int REPLACED = 1;
+    /**
+     * Call is dropped
+     */
+    static final int DROPPED = 2;
+
+    private final Spec mSpec;
+    private final ArrayDeque<Object> mQueue = new ArrayDeque<>();
+    private int mReservedCount;
+
+    BoundedQueue(@NonNull Spec spec) {
+        mSpec = spec;
+    }
+
+    /**
+     * Queue a call. It may block the caller with {@link EventsQueue#BLOCK} policy.
+     *
+     * @param runnable Call to queue
+     * @param canWait Whether caller can wait with {@link EventsQueue#BLOCK} policy. If not,
+     *                the call is dropped when this queue is full.
+     * @return {@link #QUEUED}, {@link #REPLACED} or {@link #DROPPED}
+     */
+    int offer(@NonNull Runnable runnable, boolean canWait) {
+        synchronized (mQueue) {
+            if (mQueue.size() >= mSpec.capacity) {
+                switch (mSpec.overflow) {
+                    case EventsQueue.BLOCK:
+                        if (!canWait) {
+                            return DROPPED;
+                        }
+                        while (mQueue.size() >= mSpec.capacity) {
+                            try {
+                                mQueue.wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return DROPPED;
+                            }
+                        }
+                        break;
+                    case EventsQueue.DROP_OLDEST:
+                        Object oldest = mQueue.poll();
+                        mQueue.offer(runnable);
+                        if (oldest instanceof Reservation) {
+                            // Replaced call had no drain
+                            mReservedCount--;
+                            return QUEUED;
+                        }
+                        return REPLACED;
+                    default:
+                        return DROPPED;
+                }
+            }
+            mQueue.offer(runnable);
+            return QUEUED;
+        }
+    }
+
+    /**
+     * Take room for a call of a batch. Overflow policy applies like
+     * {@link #offer(Runnable, boolean)}, except that {@link EventsQueue#BLOCK} only waits for
+     * calls which aren't reserved. Reserved calls are delivered by tasks of their batches,
+     * which may not be scheduled before the caller returns.
+     *
+     * @param canWait Whether caller can wait with {@link EventsQueue#BLOCK} policy
+     * @return Reservation to release before delivering the call, or null if it's dropped
+     */
+    @Nullable
+    Reservation reserve(boolean canWait) {
+        synchronized (mQueue) {
+            if (mQueue.size() >= mSpec.capacity) {
+                switch (mSpec.overflow) {
+                    case EventsQueue.BLOCK:
+                        while (mQueue.size() - mReservedCount >= mSpec.capacity) {
+                            if (!canWait) {
+                                return null;
+                            }
+                            try {
+                                mQueue.wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return null;
+                            }
+                        }
+                        break;
+                    case EventsQueue.DROP_OLDEST:
+                        // Drain of a replaced call takes the next one or nothing
+                        if (mQueue.poll() instanceof Reservation) {
+                            mReservedCount--;
+                        }
+                        break;
+                    default:
+                        return null;
+                }
+            }
+            Reservation reservation = new Reservation();
+            mQueue.offer(reservation);
+            mReservedCount++;
+            return reservation;
+        }
+    }
+
+    int size() {
+        synchronized (mQueue) {
+            return mQueue.size();
+        }
+    }
+
+    @Override
+    public void run() {
+        Runnable runnable = null;
+        synchronized (mQueue) {
+            if (mReservedCount == 0) {
+                runnable = (Runnable) mQueue.poll();
+            } else {
+                // Reservations are released by their batches
+                Iterator<Object> iterator = mQueue.iterator();
+                while (iterator.hasNext()) {
+                    Object next = iterator.next();
+                    if (!(next instanceof Reservation)) {
+                        iterator.remove();
+                        runnable = (Runnable) next;
+                        break;
+                    }
+                }
+            }
+            mQueue.notifyAll();
+        }
+        if (runnable != null) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * Room taken for a call of a batch
+     */
+    final class Reservation {
+
+        /**
+         * Give the room back
+         *
+         * @return True if the call still has its room and should be delivered, or false if a
+         * newer call replaced it
+         */
+        boolean release() {
+            synchronized (mQueue) {
+                if (!mQueue.remove(this)) {
+                    return false;
+                }
+                mReservedCount--;
+                mQueue.notifyAll();
+                return true;
+            }
+        }
+
+    }
+
+    /**
+     * Capacity and overflow policy declared by {@link EventsQueue}. Generated helpers keep
+     * one instance per method, which identifies queues of the method in subscriptions.
+     */
+    static final class Spec {
+
+        final int capacity;
+        @EventsQueue.OverflowPolicy
+        final int overflow;
+
+        Spec(int capacity, @EventsQueue.OverflowPolicy int overflow) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity should be positive.");
+            }
+            this.capacity = capacity;
+            this.overflow = overflow;
+        }
+
+    }
+
+}
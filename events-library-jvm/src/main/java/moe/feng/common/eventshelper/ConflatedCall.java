@@ -0,0 +1,124 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pending call slot of a method annotated with {@link Conflate}. It keeps the latest
+ * invocation only, and delivers it to listeners once when the scheduled runnable runs. Like
+ * other calls, each listener gets its own delivery except on main thread, which delivers to
+ * all listeners in the slot runnable.
+ *
+ * @param <T> Listener type
+ * @author Fung Gwo (fythonx@gmail.com)
+ */
+final class ConflatedCall<T> implements Runnable {
+
+    private final Class<T> mListenerClass;
+    private final String mMethodName;
+    private final String mTag;
+    private final int mThreadType;
+    private final EventsBus mEventsBus;
+
+    private final AtomicReference<Invocation<T>> mPending = new AtomicReference<>();
+    private volatile long mScheduledTime;
+
+    ConflatedCall(@NonNull Class<T> listenerClass, @NonNull String methodName,
+                  @Nullable String tag, @EventsOnThread.ThreadType int threadType,
+                  @NonNull EventsBus eventsBus) {
+        mListenerClass = listenerClass;
+        mMethodName = methodName;
+        mTag = tag;
+        mThreadType = threadType;
+        mEventsBus = eventsBus;
+    }
+
+    /**
+     * Replace pending invocation with a newer one. The slot will be scheduled if there was no
+     * pending invocation.
+     *
+     * @param invocation Invocation
+     */
+    void schedule(@NonNull Invocation<T> invocation) {
+        mEventsBus.onPublish(mListenerClass, mMethodName, mTag);
+        if (mPending.getAndSet(invocation) == null) {
+            // Queued time of the slot counts from its first pending call
+            mScheduledTime = mEventsBus.beginDelivery();
+            mEventsBus.scheduleRunnable(this, mThreadType);
+        }
+    }
+
+    /**
+     * Replace pending invocation with a newer one of a sticky method. It's only delivered to
+     * subscriptions taken when the call was kept, because listeners registered later receive
+     * it by replay.
+     *
+     * @param invocation Invocation
+     * @param subscriptions Subscriptions returned by
+     *                      {@link EventsBus#putSticky(Class, String, String, int, Invocation)}
+     */
+    void schedule(@NonNull Invocation<T> invocation, @NonNull Subscription[] subscriptions) {
+        schedule(new StickyInvocation<>(invocation, subscriptions));
+    }
+
+    @Override
+    public void run() {
+        // Read before taking the invocation, a newer slot may be scheduled right after that
+        long scheduledTime = mScheduledTime;
+        Invocation<T> invocation = mPending.getAndSet(null);
+        if (invocation == null) {
+            return;
+        }
+        boolean mainThread = mThreadType == EventsOnThread.MAIN_THREAD
+                || mThreadType == EventsOnThread.MAIN_IDLE_THREAD;
+        Subscription[] subscriptions = invocation instanceof StickyInvocation
+                ? ((StickyInvocation<T>) invocation).subscriptions
+                : mEventsBus.getSubscriptions(mListenerClass, mTag);
+        for (Subscription subscription : subscriptions) {
+            Object listener = subscription.get();
+            if (listener == null) {
+                continue;
+            }
+            T typedListener = mListenerClass.cast(listener);
+            if (mainThread) {
+                deliver(typedListener, invocation, scheduledTime);
+            } else {
+                // Serial deliveries also keep order with others to the listener in its mailbox
+                mEventsBus.scheduleDelivery(subscription,
+                        () -> deliver(typedListener, invocation, scheduledTime),
+                        mThreadType, mListenerClass, mMethodName, mTag);
+            }
+        }
+    }
+
+    private void deliver(@NonNull T listener, @NonNull Invocation<T> invocation,
+                         long scheduledTime) {
+        long startTime = mEventsBus.beginDelivery();
+        try {
+            invocation.invoke(listener);
+        } finally {
+            mEventsBus.endDelivery(mListenerClass, mMethodName, mTag, mThreadType,
+                    scheduledTime, startTime);
+        }
+    }
+
+    private static final class StickyInvocation<T> implements Invocation<T> {
+
+        final Invocation<T> invocation;
+        final Subscription[] subscriptions;
+
+        StickyInvocation(Invocation<T> invocation, Subscription[] subscriptions) {
+            this.invocation = invocation;
+            this.subscriptions = subscriptions;
+        }
+
+        @Override
+        public void invoke(T listener) {
+            invocation.invoke(listener);
+        }
+
+    }
+
+}
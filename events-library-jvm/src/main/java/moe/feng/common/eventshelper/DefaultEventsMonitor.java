@@ -0,0 +1,280 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default implementation of {@link EventsMonitor}. It counts publishes and deliveries per
+ * listener interface, method and tag, records latencies into {@link LatencyHistogram}s and
+ * tracks queue depths per thread type. Recording doesn't lock or allocate once a method has
+ * been seen.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ */
+public final class DefaultEventsMonitor implements EventsMonitor {
+
+    private static final String NO_TAG = "";
+
+    private final ConcurrentMap<Class<?>, ConcurrentMap<String, ConcurrentMap<String, Stats>>>
+            mStats = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Integer, Backlog> mBacklogs = new ConcurrentHashMap<>();
+
+    @Override
+    public void onPublish(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                          @Nullable String tag) {
+        statsOf(listenerClass, methodName, tag).published.incrementAndGet();
+    }
+
+    @Override
+    public void onDelivered(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                            @Nullable String tag, int threadType,
+                            long queuedNanos, long executionNanos) {
+        Stats stats = statsOf(listenerClass, methodName, tag);
+        stats.delivered.incrementAndGet();
+        if (queuedNanos > 0) {
+            // Deliveries which weren't queued would only skew queued time to zero
+            stats.queued.record(queuedNanos);
+        }
+        stats.execution.record(executionNanos);
+    }
+
+    @Override
+    public void onBacklog(int threadType, int depth) {
+        Backlog backlog = mBacklogs.get(threadType);
+        if (backlog == null) {
+            backlog = new Backlog();
+            Backlog previous = mBacklogs.putIfAbsent(threadType, backlog);
+            if (previous != null) {
+                backlog = previous;
+            }
+        }
+        backlog.current.set(depth);
+        int max;
+        while (depth > (max = backlog.max.get())) {
+            if (backlog.max.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void onDropped(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                          @Nullable String tag, int threadType) {
+        statsOf(listenerClass, methodName, tag).dropped.incrementAndGet();
+    }
+
+    /**
+     * Clear all recorded statistics
+     */
+    public void reset() {
+        mStats.clear();
+        mBacklogs.clear();
+    }
+
+    /**
+     * Take a snapshot of recorded statistics
+     *
+     * @return Snapshot
+     */
+    @NonNull
+    public Snapshot snapshot() {
+        List<MethodStats> methods = new ArrayList<>();
+        for (Map.Entry<Class<?>, ConcurrentMap<String, ConcurrentMap<String, Stats>>> byClass
+                : mStats.entrySet()) {
+            for (Map.Entry<String, ConcurrentMap<String, Stats>> byMethod
+                    : byClass.getValue().entrySet()) {
+                for (Map.Entry<String, Stats> byTag : byMethod.getValue().entrySet()) {
+                    Stats stats = byTag.getValue();
+                    methods.add(new MethodStats(
+                            byClass.getKey().getName(),
+                            byMethod.getKey(),
+                            NO_TAG.equals(byTag.getKey()) ? null : byTag.getKey(),
+                            stats.published.get(),
+                            stats.delivered.get(),
+                            stats.dropped.get(),
+                            stats.queued.getCounts(),
+                            stats.execution.getCounts()));
+                }
+            }
+        }
+        List<BacklogStats> backlogs = new ArrayList<>();
+        for (Map.Entry<Integer, Backlog> entry : mBacklogs.entrySet()) {
+            backlogs.add(new BacklogStats(entry.getKey(),
+                    entry.getValue().current.get(), entry.getValue().max.get()));
+        }
+        return new Snapshot(Collections.unmodifiableList(methods),
+                Collections.unmodifiableList(backlogs));
+    }
+
+    private Stats statsOf(Class<?> listenerClass, String methodName, String tag) {
+        ConcurrentMap<String, ConcurrentMap<String, Stats>> byMethod = mStats.get(listenerClass);
+        if (byMethod == null) {
+            byMethod = new ConcurrentHashMap<>();
+            ConcurrentMap<String, ConcurrentMap<String, Stats>> previous =
+                    mStats.putIfAbsent(listenerClass, byMethod);
+            if (previous != null) {
+                byMethod = previous;
+            }
+        }
+        ConcurrentMap<String, Stats> byTag = byMethod.get(methodName);
+        if (byTag == null) {
+            byTag = new ConcurrentHashMap<>();
+            ConcurrentMap<String, Stats> previous = byMethod.putIfAbsent(methodName, byTag);
+            if (previous != null) {
+                byTag = previous;
+            }
+        }
+        String tagKey = tag != null ? tag : NO_TAG;
+        Stats stats = byTag.get(tagKey);
+        if (stats == null) {
+            stats = new Stats();
+            Stats previous = byTag.putIfAbsent(tagKey, stats);
+            if (previous != null) {
+                stats = previous;
+            }
+        }
+        return stats;
+    }
+
+    private static final class Stats {
+
+        final AtomicLong published = new AtomicLong();
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final LatencyHistogram queued = new LatencyHistogram();
+        final LatencyHistogram execution = new LatencyHistogram();
+
+    }
+
+    private static final class Backlog {
+
+        final AtomicInteger current = new AtomicInteger();
+        final AtomicInteger max = new AtomicInteger();
+
+    }
+
+    /**
+     * Statistics of a listener method with a tag
+     */
+    public static final class MethodStats {
+
+        public final String listenerClassName;
+        public final String methodName;
+        @Nullable
+        public final String tag;
+        public final long publishedCount;
+        public final long deliveredCount;
+        /**
+         * Count of calls dropped by {@link EventsQueue#REPORT_AND_DROP} policy
+         */
+        public final long droppedCount;
+        /**
+         * Bucket counts of time between scheduling and running deliveries.
+         * @see LatencyHistogram
+         */
+        public final long[] queuedHistogram;
+        /**
+         * Bucket counts of time spent in listener method.
+         * @see LatencyHistogram
+         */
+        public final long[] executionHistogram;
+
+        MethodStats(String listenerClassName, String methodName, String tag,
+                    long publishedCount, long deliveredCount, long droppedCount,
+                    long[] queuedHistogram, long[] executionHistogram) {
+            this.listenerClassName = listenerClassName;
+            this.methodName = methodName;
+            this.tag = tag;
+            this.publishedCount = publishedCount;
+            this.deliveredCount = deliveredCount;
+            this.droppedCount = droppedCount;
+            this.queuedHistogram = queuedHistogram;
+            this.executionHistogram = executionHistogram;
+        }
+
+        public long getExecutionPercentileNanos(double percentile) {
+            return LatencyHistogram.percentileOf(executionHistogram, percentile);
+        }
+
+        public long getQueuedPercentileNanos(double percentile) {
+            return LatencyHistogram.percentileOf(queuedHistogram, percentile);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return listenerClassName + "#" + methodName
+                    + (tag != null ? "[" + tag + "]" : "")
+                    + " published=" + publishedCount
+                    + " delivered=" + deliveredCount
+                    + (droppedCount > 0 ? " dropped=" + droppedCount : "")
+                    + " execution.p50<=" + getExecutionPercentileNanos(50) + "ns"
+                    + " execution.p99<=" + getExecutionPercentileNanos(99) + "ns"
+                    + " queued.p99<=" + getQueuedPercentileNanos(99) + "ns";
+        }
+
+    }
+
+    /**
+     * Queue depth statistics of a thread type
+     */
+    public static final class BacklogStats {
+
+        @EventsOnThread.ThreadType
+        public final int threadType;
+        public final int currentDepth;
+        public final int maxDepth;
+
+        BacklogStats(int threadType, int currentDepth, int maxDepth) {
+            this.threadType = threadType;
+            this.currentDepth = currentDepth;
+            this.maxDepth = maxDepth;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "threadType=" + threadType + " depth=" + currentDepth + " max=" + maxDepth;
+        }
+
+    }
+
+    /**
+     * Snapshot of {@link DefaultEventsMonitor}
+     */
+    public static final class Snapshot {
+
+        public final List<MethodStats> methods;
+        public final List<BacklogStats> backlogs;
+
+        Snapshot(List<MethodStats> methods, List<BacklogStats> backlogs) {
+            this.methods = methods;
+            this.backlogs = backlogs;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (MethodStats stats : methods) {
+                builder.append(stats).append('\n');
+            }
+            for (BacklogStats stats : backlogs) {
+                builder.append(stats).append('\n');
+            }
+            return builder.toString();
+        }
+
+    }
+
+}
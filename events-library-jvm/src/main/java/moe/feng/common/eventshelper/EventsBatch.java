@@ -0,0 +1,428 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A batch of calls to listeners of an interface. Calls made to {@link #recorder()} are kept
+ * until {@link #publish()}, which resolves subscribers once and hands each listener all its
+ * calls in one task per thread type, in the order they were recorded.
+ *
+ * {@link #publishParallel()} runs listeners concurrently on a work-stealing pool instead, and
+ * returns a completion to wait for all of them.
+ *
+ * {@link Conflate} doesn't apply to batches: every recorded call is delivered. Calls of
+ * methods annotated with {@link EventsQueue} take room in queues of their listeners when the
+ * batch is published, so capacity and overflow policy apply as they do outside of batches,
+ * while the task of each listener still delivers them in order with its other calls.
+ * {@link EventsQueue#BLOCK} only waits for room taken by calls outside of batches. Calls of
+ * methods annotated with {@link Sticky} are kept when the batch is published.
+ * A batch isn't thread-safe and should be recorded and published by one thread.
+ *
+ * @param <T> Listener type
+ * @author Fung Gwo (fythonx@gmail.com)
+ * @see EventsBus#newBatch(Class, String)
+ */
+public final class EventsBatch<T> {
+
+    private final EventsBus mEventsBus;
+    private final Class<T> mListenerClass;
+    private final String mTag;
+
+    private List<Entry<T>> mEntries = new ArrayList<>();
+    private T mRecorder;
+
+    EventsBatch(@NonNull EventsBus eventsBus, @NonNull Class<T> listenerClass,
+                @Nullable String tag) {
+        mEventsBus = eventsBus;
+        mListenerClass = listenerClass;
+        mTag = tag;
+    }
+
+    /**
+     * Get recorder of this batch. Calling its methods records calls instead of delivering them.
+     *
+     * @return Recorder implementing listener interface
+     */
+    @NonNull
+    public T recorder() {
+        if (mRecorder == null) {
+            Object helper = mEventsBus.of(mListenerClass, mTag);
+            if (!(helper instanceof Recordable)) {
+                throw new UnsupportedOperationException(
+                        "Helper of " + mListenerClass + " doesn't support batches.");
+            }
+            mRecorder = ((Recordable<T>) helper).newRecorder(this);
+        }
+        return mRecorder;
+    }
+
+    /**
+     * Get count of recorded calls
+     *
+     * @return Count of calls waiting to publish
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Deliver all recorded calls and clear this batch. Calls on current thread are delivered
+     * before this method returns.
+     */
+    public void publish() {
+        if (mEntries.isEmpty()) {
+            return;
+        }
+        Targets<T> targets = resolve(takeEntries());
+        List<Entry<T>> lastEntries = null;
+        List<List<Entry<T>>> byThread = null;
+        for (int i = 0; i < targets.subscriptions.size(); i++) {
+            List<Entry<T>> entries = targets.entries.get(i);
+            // Listeners receiving all calls share the entries, so split them once
+            if (entries != lastEntries) {
+                byThread = splitByThread(entries);
+                lastEntries = entries;
+            }
+            for (List<Entry<T>> threadEntries : byThread) {
+                deliver(targets.subscriptions.get(i), threadEntries);
+            }
+        }
+    }
+
+    /**
+     * Deliver all recorded calls in parallel on parallel executor of bus and clear this batch.
+     *
+     * @return Completion which is done when every listener has received its calls
+     * @see #publishParallel(Executor)
+     */
+    @NonNull
+    public EventsCompletion publishParallel() {
+        return publishParallel(mEventsBus.getParallelExecutor());
+    }
+
+    /**
+     * Deliver all recorded calls in parallel and clear this batch. Each listener receives
+     * its calls in one task of executor in the order they were recorded, while different
+     * listeners run concurrently. Thread types and {@link EventsQueue} of methods are ignored.
+     *
+     * @param executor Executor to run tasks of listeners
+     * @return Completion which is done when every listener has received its calls
+     * @see EventsExecutors#newParallelExecutor()
+     */
+    @NonNull
+    public EventsCompletion publishParallel(@NonNull Executor executor) {
+        requireNonNull(executor, "Executor argument cannot be null.");
+        if (mEntries.isEmpty()) {
+            return new EventsCompletion(0);
+        }
+        Targets<T> targets = resolve(takeEntries());
+        int count = targets.subscriptions.size();
+        EventsCompletion completion = new EventsCompletion(count);
+        long scheduledTime = mEventsBus.beginDelivery();
+        for (int i = 0; i < count; i++) {
+            Delivery<T> delivery = new Delivery<>(this, targets.subscriptions.get(i),
+                    targets.entries.get(i), null, scheduledTime, completion);
+            try {
+                executor.execute(delivery);
+            } catch (RejectedExecutionException e) {
+                completion.addError(e);
+                completion.countDown();
+            }
+        }
+        return completion;
+    }
+
+    private List<Entry<T>> takeEntries() {
+        List<Entry<T>> entries = mEntries;
+        mEntries = new ArrayList<>();
+        for (Entry<T> entry : entries) {
+            mEventsBus.onPublish(mListenerClass, entry.methodName, mTag);
+        }
+        return entries;
+    }
+
+    /**
+     * Keep sticky calls of entries and get subscribers at once, like helpers do
+     */
+    private Subscription[] keepSticky(List<Entry<T>> entries) {
+        List<StickyCache.Call> calls = null;
+        for (Entry<T> entry : entries) {
+            if (entry.stickySignature == null) {
+                continue;
+            }
+            if (calls == null) {
+                calls = new ArrayList<>();
+            }
+            calls.add(new StickyCache.Call(mListenerClass, entry.stickySignature, mTag,
+                    entry.threadType, entry.invocation));
+        }
+        return calls != null ? mEventsBus.putSticky(mListenerClass, mTag, calls)
+                : mEventsBus.getSubscriptions(mListenerClass, mTag);
+    }
+
+    /**
+     * Resolve subscribers of entries and calls each of them should receive
+     */
+    private Targets<T> resolve(List<Entry<T>> entries) {
+        boolean hasKeyed = false;
+        for (Entry<T> entry : entries) {
+            hasKeyed |= entry.keyed;
+        }
+        Subscription[] all = keepSticky(entries);
+        Targets<T> targets = new Targets<>();
+
+        if (!hasKeyed) {
+            // Every listener receives all calls
+            for (Subscription subscription : all) {
+                targets.subscriptions.add(subscription);
+                targets.entries.add(entries);
+            }
+            return targets;
+        }
+
+        Map<Object, Subscription[]> byKey = new HashMap<>();
+        Map<Subscription, List<Entry<T>>> bySubscription = new IdentityHashMap<>();
+        for (Entry<T> entry : entries) {
+            Subscription[] subscriptions = all;
+            if (entry.keyed) {
+                subscriptions = byKey.get(entry.key);
+                if (subscriptions == null) {
+                    subscriptions = mEventsBus.getSubscriptions(mListenerClass, mTag, entry.key);
+                    byKey.put(entry.key, subscriptions);
+                }
+            }
+            for (Subscription subscription : subscriptions) {
+                List<Entry<T>> received = bySubscription.get(subscription);
+                if (received == null) {
+                    received = new ArrayList<>();
+                    bySubscription.put(subscription, received);
+                    targets.subscriptions.add(subscription);
+                    targets.entries.add(received);
+                }
+                received.add(entry);
+            }
+        }
+        return targets;
+    }
+
+    private void deliver(Subscription subscription, List<Entry<T>> entries) {
+        int threadType = entries.get(0).threadType;
+        if (threadType == EventsOnThread.CURRENT_THREAD) {
+            new Delivery<>(this, subscription, entries, null, 0L, null).run();
+            return;
+        }
+        long scheduledTime = mEventsBus.beginDelivery();
+        // Bounded calls take room in their queues now, and the task delivers them in order
+        List<Entry<T>> admitted = entries;
+        List<BoundedQueue.Reservation> reservations = null;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry<T> entry = entries.get(i);
+            if (reservations == null) {
+                if (entry.queueSpec == null) {
+                    continue;
+                }
+                admitted = new ArrayList<>(entries.subList(0, i));
+                reservations = new ArrayList<>(Collections.nCopies(i, null));
+            }
+            BoundedQueue.Reservation reservation = null;
+            if (entry.queueSpec != null) {
+                reservation = mEventsBus.reserveBounded(subscription, entry.queueSpec,
+                        threadType, mListenerClass, entry.methodName, mTag);
+                if (reservation == null) {
+                    continue;
+                }
+            }
+            admitted.add(entry);
+            reservations.add(reservation);
+        }
+        if (!admitted.isEmpty()) {
+            mEventsBus.scheduleRunnable(subscription, new Delivery<>(this, subscription,
+                    admitted, reservations, scheduledTime, null), threadType);
+        }
+    }
+
+    private static <T> List<List<Entry<T>>> splitByThread(List<Entry<T>> entries) {
+        List<List<Entry<T>>> result = new ArrayList<>(2);
+        for (Entry<T> entry : entries) {
+            List<Entry<T>> threadEntries = null;
+            for (List<Entry<T>> candidate : result) {
+                if (candidate.get(0).threadType == entry.threadType) {
+                    threadEntries = candidate;
+                    break;
+                }
+            }
+            if (threadEntries == null) {
+                threadEntries = new ArrayList<>();
+                result.add(threadEntries);
+            }
+            threadEntries.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * Record a call of method without key parameter. Called by generated recorders.
+     *
+     * @param stickySignature Signature of method annotated with {@link Sticky}, or null
+     */
+    void record(@NonNull Invocation<T> invocation, @NonNull String methodName,
+                @EventsOnThread.ThreadType int threadType,
+                @Nullable BoundedQueue.Spec queueSpec, @Nullable String stickySignature) {
+        mEntries.add(new Entry<>(invocation, methodName, threadType, queueSpec,
+                stickySignature, false, null));
+    }
+
+    /**
+     * Record a call of method with {@link EventsKey} parameter. Called by generated recorders.
+     */
+    void recordKeyed(@NonNull Invocation<T> invocation, @NonNull String methodName,
+                     @EventsOnThread.ThreadType int threadType,
+                     @Nullable BoundedQueue.Spec queueSpec, @Nullable Object key) {
+        mEntries.add(new Entry<>(invocation, methodName, threadType, queueSpec, null,
+                true, key));
+    }
+
+    /**
+     * Implemented by generated helpers which can create recorders
+     *
+     * @param <T> Listener type
+     */
+    interface Recordable<T> {
+
+        @NonNull
+        T newRecorder(@NonNull EventsBatch<T> batch);
+
+    }
+
+    /**
+     * Subscribers in delivery order and calls received by each of them
+     */
+    private static final class Targets<T> {
+
+        final List<Subscription> subscriptions = new ArrayList<>();
+        final List<List<Entry<T>>> entries = new ArrayList<>();
+
+    }
+
+    private static final class Entry<T> {
+
+        final Invocation<T> invocation;
+        final String methodName;
+        final int threadType;
+        @Nullable
+        final BoundedQueue.Spec queueSpec;
+        @Nullable
+        final String stickySignature;
+        final boolean keyed;
+        final Object key;
+
+        Entry(Invocation<T> invocation, String methodName, int threadType,
+              BoundedQueue.Spec queueSpec, String stickySignature, boolean keyed, Object key) {
+            this.invocation = invocation;
+            this.methodName = methodName;
+            this.threadType = threadType;
+            this.queueSpec = queueSpec;
+            this.stickySignature = stickySignature;
+            this.keyed = keyed;
+            this.key = key;
+        }
+
+    }
+
+    /**
+     * Calls of a listener on one thread. With a completion, exceptions thrown by listener
+     * are collected into it instead of being thrown. Scheduled time is 0 for deliveries on
+     * current thread, which aren't queued.
+     *
+     * Reservations of bounded calls are released as the calls are reached, and the rest of
+     * them when listener throws or is gone.
+     */
+    private static final class Delivery<T> implements Runnable {
+
+        private final EventsBatch<T> mBatch;
+        private final Subscription mSubscription;
+        private final List<Entry<T>> mEntries;
+        @Nullable
+        private final List<BoundedQueue.Reservation> mReservations;
+        private final long mScheduledTime;
+        @Nullable
+        private final EventsCompletion mCompletion;
+
+        Delivery(EventsBatch<T> batch, Subscription subscription, List<Entry<T>> entries,
+                 @Nullable List<BoundedQueue.Reservation> reservations, long scheduledTime,
+                 @Nullable EventsCompletion completion) {
+            mBatch = batch;
+            mSubscription = subscription;
+            mEntries = entries;
+            mReservations = reservations;
+            mScheduledTime = scheduledTime;
+            mCompletion = completion;
+        }
+
+        @Override
+        public void run() {
+            int next = 0;
+            try {
+                Object listener = mSubscription.get();
+                if (listener == null) {
+                    return;
+                }
+                T typedListener = mBatch.mListenerClass.cast(listener);
+                while (next < mEntries.size()) {
+                    int index = next++;
+                    BoundedQueue.Reservation reservation =
+                            mReservations != null ? mReservations.get(index) : null;
+                    // Skip bounded calls replaced by newer ones
+                    if (reservation == null || reservation.release()) {
+                        deliver(typedListener, mEntries.get(index));
+                    }
+                }
+            } finally {
+                if (mReservations != null) {
+                    for (int i = next; i < mReservations.size(); i++) {
+                        BoundedQueue.Reservation reservation = mReservations.get(i);
+                        if (reservation != null) {
+                            reservation.release();
+                        }
+                    }
+                }
+                if (mCompletion != null) {
+                    mCompletion.countDown();
+                }
+            }
+        }
+
+        private void deliver(T listener, Entry<T> entry) {
+            EventsBus eventsBus = mBatch.mEventsBus;
+            long startTime = eventsBus.beginDelivery();
+            try {
+                if (mCompletion == null) {
+                    entry.invocation.invoke(listener);
+                } else {
+                    try {
+                        entry.invocation.invoke(listener);
+                    } catch (Throwable e) {
+                        mCompletion.addError(e);
+                    }
+                }
+            } finally {
+                eventsBus.endDelivery(mBatch.mListenerClass, entry.methodName, mBatch.mTag,
+                        entry.threadType, mScheduledTime, startTime);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,1191 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Dispatching engine of events listeners, which only depends on JVM. It holds registered
+ * listeners, creates helpers and schedules calls to threads of listener methods.
+ *
+ * {@link EventsOnThread#MAIN_THREAD} and {@link EventsOnThread#MAIN_IDLE_THREAD} calls are
+ * run by the {@link EventsScheduler} passed to constructor. On Android, use
+ * <code>EventsHelper</code> instead, which schedules them to the main looper.
+ *
+ * Each instance has its own listeners, helpers, indexes, executors and monitor. Publishing
+ * on a bus never touches listeners registered to other buses, so unrelated features can use
+ * separated buses without contending each other.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ */
+public class EventsBus {
+
+    /**
+     * Default maximum count of calls kept for methods annotated with {@link Sticky}
+     */
+    public static final int DEFAULT_STICKY_CACHE_SIZE = 64;
+
+    private static final String PACKAGE_NAME = requireNonNull(EventsBus.class.getPackage()).getName();
+
+    private static final boolean sUseProxyInterface = false;
+
+    private final ListenerRegistry mListeners = new ListenerRegistry();
+
+    private final ConcurrentMap<Class<?>, HelperSlot> mHelperCache = new ConcurrentHashMap<>();
+
+    private final List<EventsHelperIndex> mIndexes = new CopyOnWriteArrayList<>();
+
+    private final StickyCache mStickyCalls = new StickyCache(DEFAULT_STICKY_CACHE_SIZE);
+
+    @Nullable
+    private final EventsScheduler mMainScheduler;
+
+    private volatile Executor mNewThreadExecutor;
+
+    private volatile Executor mIoExecutor;
+
+    private volatile Executor mComputationExecutor;
+
+    private volatile Executor mParallelExecutor;
+
+    private volatile boolean mWeakListenersByDefault = false;
+
+    private volatile boolean mImmediateMainDelivery = false;
+
+    @Nullable
+    private volatile EventsJournal mJournal;
+
+    // Monitor called by dispatching, which combines user monitor and tracer
+    @Nullable
+    private volatile EventsMonitor mMonitor;
+    @Nullable
+    private EventsMonitor mUserMonitor;
+    @Nullable
+    private EventsTracer mTracer;
+
+    private static <T> void validateListenerInterface(Class<T> listenerClass) {
+        if (!listenerClass.isInterface()) {
+            throw new IllegalArgumentException("API declarations must be interfaces.");
+        }
+
+        if (listenerClass.getAnnotation(EventsListener.class) == null) {
+            throw new IllegalArgumentException("Objects registering should be " +
+                    "annotated with @EventsListener");
+        }
+    }
+
+    private void validateListenerInstance(Object listener) {
+        if (mListeners.getListenerInterfaces(listener.getClass()).isEmpty()) {
+            throw new IllegalArgumentException(
+                    "This listener isn't annotated with EventsListener.");
+        }
+    }
+
+    /**
+     * Create an events bus without main thread. Calling {@link EventsOnThread#MAIN_THREAD}
+     * methods of its helpers will throw a NPE.
+     */
+    public EventsBus() {
+        this(null);
+    }
+
+    /**
+     * Create an events bus
+     *
+     * @param mainScheduler Scheduler to run {@link EventsOnThread#MAIN_THREAD} methods
+     * @see EventsExecutors#asScheduler(Executor)
+     */
+    public EventsBus(@Nullable EventsScheduler mainScheduler) {
+        mMainScheduler = mainScheduler;
+    }
+
+    /**
+     * Add an index of generated helpers. Helpers of listener types in index will be created
+     * directly instead of being looked up by reflection, so they can be shrunk by R8 safely.
+     * Adding another instance of an added index class has no effect.
+     *
+     * @param index Index generated by annotation processor
+     */
+    public synchronized void addIndex(@NonNull EventsHelperIndex index) {
+        requireNonNull(index, "Index argument cannot be null.");
+        for (EventsHelperIndex added : mIndexes) {
+            if (added.getClass() == index.getClass()) {
+                return;
+            }
+        }
+        mIndexes.add(index);
+    }
+
+    /**
+     * Set executor to run methods annotated with {@link EventsOnThread#NEW_THREAD}.
+     * By default, each bus uses its own elastic pool created by
+     * {@link EventsExecutors#newDefaultExecutor()}.
+     *
+     * @param executor Executor
+     * @see EventsExecutors#newBoundedExecutor(int, int, RejectedExecutionHandler)
+     * @see EventsExecutors#newVirtualThreadExecutor()
+     */
+    public void setNewThreadExecutor(@NonNull Executor executor) {
+        mNewThreadExecutor = requireNonNull(executor, "Executor argument cannot be null.");
+    }
+
+    /**
+     * Get executor to run methods annotated with {@link EventsOnThread#NEW_THREAD}
+     *
+     * @return Executor
+     */
+    @NonNull
+    public Executor getNewThreadExecutor() {
+        Executor executor = mNewThreadExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = mNewThreadExecutor;
+                if (executor == null) {
+                    executor = EventsExecutors.newDefaultExecutor();
+                    mNewThreadExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Set executor to run methods annotated with {@link EventsOnThread#IO_THREAD}.
+     * By default, each bus uses its own elastic pool created by
+     * {@link EventsExecutors#newIoExecutor()}.
+     *
+     * @param executor Executor
+     */
+    public void setIoExecutor(@NonNull Executor executor) {
+        mIoExecutor = requireNonNull(executor, "Executor argument cannot be null.");
+    }
+
+    /**
+     * Get executor to run methods annotated with {@link EventsOnThread#IO_THREAD}
+     *
+     * @return Executor
+     */
+    @NonNull
+    public Executor getIoExecutor() {
+        Executor executor = mIoExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = mIoExecutor;
+                if (executor == null) {
+                    executor = EventsExecutors.newIoExecutor();
+                    mIoExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Set executor to run methods annotated with {@link EventsOnThread#COMPUTATION_THREAD}.
+     * By default, each bus uses its own pool created by
+     * {@link EventsExecutors#newComputationExecutor()}.
+     *
+     * @param executor Executor
+     */
+    public void setComputationExecutor(@NonNull Executor executor) {
+        mComputationExecutor = requireNonNull(executor, "Executor argument cannot be null.");
+    }
+
+    /**
+     * Get executor to run methods annotated with {@link EventsOnThread#COMPUTATION_THREAD}
+     *
+     * @return Executor
+     */
+    @NonNull
+    public Executor getComputationExecutor() {
+        Executor executor = mComputationExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = mComputationExecutor;
+                if (executor == null) {
+                    executor = EventsExecutors.newComputationExecutor();
+                    mComputationExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Set executor to run listeners of {@link EventsBatch#publishParallel()}. By default,
+     * each bus uses its own work-stealing pool created by
+     * {@link EventsExecutors#newParallelExecutor()}.
+     *
+     * @param executor Executor
+     */
+    public void setParallelExecutor(@NonNull Executor executor) {
+        mParallelExecutor = requireNonNull(executor, "Executor argument cannot be null.");
+    }
+
+    /**
+     * Get executor to run listeners of {@link EventsBatch#publishParallel()}
+     *
+     * @return Executor
+     */
+    @NonNull
+    public Executor getParallelExecutor() {
+        Executor executor = mParallelExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = mParallelExecutor;
+                if (executor == null) {
+                    executor = EventsExecutors.newParallelExecutor();
+                    mParallelExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Set journal to record calls published by helpers. Journaling is disabled by default
+     * and costs only a field read per call when disabled.
+     *
+     * @param journal Journal, or null to disable journaling
+     * @see EventsReplayer
+     */
+    public void setJournal(@Nullable EventsJournal journal) {
+        mJournal = journal;
+    }
+
+    /**
+     * Get journal recording calls published by helpers
+     *
+     * @return Journal, or null if journaling is disabled
+     */
+    @Nullable
+    public EventsJournal getJournal() {
+        return mJournal;
+    }
+
+    /**
+     * Set monitor to record publishes, deliveries and queue depths. Monitoring is disabled
+     * by default and costs only a field read per call when disabled.
+     *
+     * @param monitor Monitor, or null to disable monitoring
+     * @see DefaultEventsMonitor
+     */
+    public synchronized void setMonitor(@Nullable EventsMonitor monitor) {
+        mUserMonitor = monitor;
+        updateMonitor();
+    }
+
+    /**
+     * Get current monitor
+     *
+     * @return Monitor, or null if monitoring is disabled
+     */
+    @Nullable
+    public synchronized EventsMonitor getMonitor() {
+        return mUserMonitor;
+    }
+
+    /**
+     * Set tracer to record dispatch spans. Tracing is disabled by default and works
+     * together with monitor set by {@link #setMonitor(EventsMonitor)}.
+     *
+     * @param tracer Tracer, or null to disable tracing
+     */
+    public synchronized void setTracer(@Nullable EventsTracer tracer) {
+        mTracer = tracer;
+        updateMonitor();
+    }
+
+    /**
+     * Get current tracer
+     *
+     * @return Tracer, or null if tracing is disabled
+     */
+    @Nullable
+    public synchronized EventsTracer getTracer() {
+        return mTracer;
+    }
+
+    private void updateMonitor() {
+        if (mUserMonitor != null && mTracer != null) {
+            mMonitor = new CompositeMonitor(mUserMonitor, mTracer);
+        } else {
+            mMonitor = mUserMonitor != null ? mUserMonitor : mTracer;
+        }
+    }
+
+    /**
+     * Set whether {@link EventsOnThread#MAIN_THREAD} calls published on main thread should be
+     * delivered immediately, instead of waiting for the main scheduler to run them later.
+     * Calls are still scheduled when published on other threads, or when earlier main thread
+     * calls are pending, so deliveries keep their order.
+     *
+     * @param immediate Whether to deliver main thread calls immediately when possible
+     * @see EventsScheduler#isCurrentThread()
+     */
+    public void setImmediateMainDelivery(boolean immediate) {
+        mImmediateMainDelivery = immediate;
+    }
+
+    /**
+     * Check whether {@link EventsOnThread#MAIN_THREAD} calls published on main thread are
+     * delivered immediately
+     *
+     * @return True if immediate delivery is enabled
+     */
+    public boolean isImmediateMainDelivery() {
+        return mImmediateMainDelivery;
+    }
+
+    /**
+     * Set maximum count of calls kept for methods annotated with {@link Sticky}. When more
+     * calls are kept, the least recently updated ones are evicted.
+     *
+     * @param maxSize Maximum count of kept calls, or 0 to disable sticky calls
+     */
+    public void setStickyCacheSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize cannot be negative.");
+        }
+        mStickyCalls.setMaxSize(maxSize);
+    }
+
+    /**
+     * Get maximum count of calls kept for methods annotated with {@link Sticky}
+     *
+     * @return Maximum count of kept calls
+     */
+    public int getStickyCacheSize() {
+        return mStickyCalls.getMaxSize();
+    }
+
+    /**
+     * Remove all kept calls of methods annotated with {@link Sticky}, so listeners registered
+     * later won't receive them.
+     */
+    public void clearStickyCalls() {
+        mStickyCalls.clear();
+    }
+
+    /**
+     * Set whether {@link #registerListener(Object, String)} should hold listeners by weak
+     * references. Weakly registered listeners will be removed automatically after they are
+     * garbage collected.
+     *
+     * @param weakByDefault Whether to register listeners weakly by default
+     */
+    public void setWeakListenersByDefault(boolean weakByDefault) {
+        mWeakListenersByDefault = weakByDefault;
+    }
+
+    /**
+     * Register events listener
+     *
+     * @param listener Object implemented a interface annotated with {@link EventsListener}
+     */
+    public void registerListener(@NonNull Object listener) {
+        registerListener(listener, null);
+    }
+
+
+    /**
+     * Register list of events listeners. They are added to registry in one update, which is
+     * much cheaper than registering them one by one.
+     *
+     * @param listeners Objects implemented a interface annotated with {@link EventsListener}
+     */
+    public void registerListeners(@NonNull Object... listeners) {
+        requireNonNull(listeners, "Listeners argument cannot be null.");
+        for (Object listener : listeners) {
+            requireNonNull(listener, "Listener argument cannot be null.");
+            validateListenerInstance(listener);
+        }
+        List<Subscription> subscriptions;
+        List<List<StickyCache.Call>> calls = new ArrayList<>();
+        synchronized (mStickyCalls) {
+            subscriptions = mListeners.registerAll(listeners, null, mWeakListenersByDefault);
+            for (Subscription subscription : subscriptions) {
+                calls.add(getStickyCalls(subscription));
+            }
+        }
+        for (int i = 0; i < subscriptions.size(); i++) {
+            replaySticky(subscriptions.get(i), calls.get(i));
+        }
+    }
+
+
+    /**
+     * Register events listener with a tag
+     *
+     * @param listener Object implemented a interface annotated with {@link EventsListener}
+     * @param tag A tag name of object
+     */
+    public void registerListener(@NonNull Object listener, @Nullable String tag) {
+        requireNonNull(listener, "Listener argument cannot be null.");
+        validateListenerInstance(listener);
+        Subscription subscription;
+        List<StickyCache.Call> calls;
+        synchronized (mStickyCalls) {
+            subscription = mListeners.register(listener, tag, mWeakListenersByDefault);
+            calls = getStickyCalls(subscription);
+        }
+        replaySticky(subscription, calls);
+    }
+
+    /**
+     * Register events listener with a tag, which only receives calls whose argument annotated
+     * with {@link EventsKey} equals one of the keys. Calls of methods without key parameter
+     * are still received. Registering it again replaces its keys.
+     *
+     * @param listener Object implemented a interface annotated with {@link EventsListener}
+     * @param tag A tag name of object
+     * @param keys Keys of calls to receive. They should be boxed values of key parameter type.
+     */
+    public void registerListener(@NonNull Object listener, @Nullable String tag,
+                                 @NonNull Object... keys) {
+        requireNonNull(listener, "Listener argument cannot be null.");
+        requireNonNull(keys, "Keys argument cannot be null.");
+        if (keys.length == 0) {
+            throw new IllegalArgumentException("Keys argument cannot be empty.");
+        }
+        validateListenerInstance(listener);
+        Set<Object> keySet = new HashSet<>(keys.length);
+        for (Object key : keys) {
+            keySet.add(requireNonNull(key, "Key cannot be null."));
+        }
+        Subscription subscription;
+        List<StickyCache.Call> calls;
+        synchronized (mStickyCalls) {
+            subscription = mListeners.register(listener, tag,
+                    Collections.unmodifiableSet(keySet), mWeakListenersByDefault);
+            calls = getStickyCalls(subscription);
+        }
+        replaySticky(subscription, calls);
+    }
+
+    /**
+     * Register events listener by weak reference. It won't prevent the listener from being
+     * garbage collected, and it will be removed automatically after collected.
+     *
+     * @param listener Object implemented a interface annotated with {@link EventsListener}
+     */
+    public void registerWeakListener(@NonNull Object listener) {
+        registerWeakListener(listener, null);
+    }
+
+    /**
+     * Register events listener with a tag by weak reference.
+     *
+     * @param listener Object implemented a interface annotated with {@link EventsListener}
+     * @param tag A tag name of object
+     * @see EventsBus#registerWeakListener(Object)
+     */
+    public void registerWeakListener(@NonNull Object listener, @Nullable String tag) {
+        requireNonNull(listener, "Listener argument cannot be null.");
+        validateListenerInstance(listener);
+        Subscription subscription;
+        List<StickyCache.Call> calls;
+        synchronized (mStickyCalls) {
+            subscription = mListeners.register(listener, tag, true);
+            calls = getStickyCalls(subscription);
+        }
+        replaySticky(subscription, calls);
+    }
+
+    /**
+     * Unregister events listener
+     *
+     * @param listener Object to unregister
+     */
+    public void unregisterListener(@NonNull Object listener) {
+        requireNonNull(listener, "Listener argument cannot be null.");
+        mListeners.unregister(listener);
+    }
+
+    /**
+     * Unregister list of events listeners. They are removed from registry in one update.
+     *
+     * @param listeners Objects to unregister
+     */
+    public void unregisterListeners(@NonNull Object... listeners) {
+        requireNonNull(listeners, "Listeners argument cannot be null.");
+        for (Object listener : listeners) {
+            requireNonNull(listener, "Listener argument cannot be null.");
+        }
+        mListeners.unregisterAll(listeners);
+    }
+
+    /**
+     * Clear all events listeners
+     */
+    public void clearAllListeners() {
+        mListeners.clear();
+    }
+
+    /**
+     * Get events helper of specific listener type. Calling methods in helper will schedule
+     * calls to all specific listeners.
+     *
+     * @param listenerClass The class of specific listener type
+     * @param <T> Listener type
+     * @return Events helper
+     */
+    public <T> T of(@NonNull Class<T> listenerClass) {
+        return of(listenerClass, null);
+    }
+
+
+    /**
+     * Get events helper of specific listener type and tag.
+     *
+     * @param listenerClass The class of specific listener type
+     * @param tag Specific tag name
+     * @param <T> Listener type
+     * @return Events helper
+     * @see EventsBus#of(Class)
+     */
+    public <T> T of(@NonNull Class<T> listenerClass, @Nullable String tag) {
+        HelperSlot slot = mHelperCache.get(listenerClass);
+        if (slot == null) {
+            // Validate listener interface only once per class
+            validateListenerInterface(listenerClass);
+            slot = new HelperSlot();
+            HelperSlot previous = mHelperCache.putIfAbsent(listenerClass, slot);
+            if (previous != null) {
+                slot = previous;
+            }
+        }
+
+        if (sUseProxyInterface) {
+            return proxyOf(listenerClass, tag);
+        } else {
+            Object cached = slot.get(tag);
+            if (cached != null) {
+                return (T) cached;
+            } else {
+                String listenerClassName = requireNonNull(listenerClass.getCanonicalName());
+                return (T) slot.putIfAbsent(tag, newHelper(listenerClass, listenerClassName, tag));
+            }
+        }
+    }
+
+    /**
+     * Create a batch of calls to listeners of specific type
+     *
+     * @param listenerClass The class of specific listener type
+     * @param <T> Listener type
+     * @return A new batch
+     */
+    @NonNull
+    public <T> EventsBatch<T> newBatch(@NonNull Class<T> listenerClass) {
+        return newBatch(listenerClass, null);
+    }
+
+    /**
+     * Create a batch of calls to listeners of specific type and tag. Record calls by
+     * {@link EventsBatch#recorder()} and deliver them together by {@link EventsBatch#publish()}.
+     *
+     * @param listenerClass The class of specific listener type
+     * @param tag Specific tag name
+     * @param <T> Listener type
+     * @return A new batch
+     */
+    @NonNull
+    public <T> EventsBatch<T> newBatch(@NonNull Class<T> listenerClass, @Nullable String tag) {
+        requireNonNull(listenerClass, "Listener class argument cannot be null.");
+        return new EventsBatch<>(this, listenerClass, tag);
+    }
+
+    private <T> T newHelper(Class<T> listenerClass, String listenerClassName, String tag) {
+        for (EventsHelperIndex index : mIndexes) {
+            Object helper = index.newHelper(listenerClass, tag, this);
+            if (helper != null) {
+                return (T) helper;
+            }
+        }
+        try {
+            String helperClassName = PACKAGE_NAME + ".Helper$$"
+                    + listenerClassName.replace(".", "_");
+            Class helperClass = Class.forName(helperClassName);
+            Constructor<T> constructor = helperClass.getDeclaredConstructor(
+                    String.class, EventsBus.class);
+            return constructor.newInstance(tag, this);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get snapshot of subscriptions for generated helpers. The returned array must not be
+     * modified.
+     */
+    @NonNull
+    Subscription[] getSubscriptions(@NonNull Class<?> listenerClass, @Nullable String tag) {
+        return mListeners.get(listenerClass, tag);
+    }
+
+    /**
+     * Get snapshot of subscriptions which should receive a call with key argument
+     *
+     * @see #getSubscriptions(Class, String)
+     */
+    @NonNull
+    Subscription[] getSubscriptions(@NonNull Class<?> listenerClass, @Nullable String tag,
+                                    @Nullable Object key) {
+        return mListeners.get(listenerClass, tag, key);
+    }
+
+    <T> List<T> getListenersByClass(Class<T> listenerClass) {
+        return getListenersByClass(listenerClass, null);
+    }
+
+    <T> List<T> getListenersByClass(Class<T> listenerClass, String tag) {
+        return toListeners(mListeners.get(listenerClass, tag));
+    }
+
+    private static <T> List<T> toListeners(Subscription[] subscriptions) {
+        List<T> list = new ArrayList<>(subscriptions.length);
+        for (Subscription subscription : subscriptions) {
+            Object listener = subscription.get();
+            if (listener != null) {
+                list.add((T) listener);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Keep the latest call of a method annotated with {@link Sticky} and get subscriptions to
+     * deliver it to. Registration adds subscriptions and takes kept calls under the same lock,
+     * so a listener registered meanwhile receives the call either by replay or from the
+     * publisher, but not both.
+     *
+     * @param signature Name and parameter types of method, which identify it with tag
+     * @return Subscriptions snapshot like {@link #getSubscriptions(Class, String)}
+     */
+    @NonNull
+    <T> Subscription[] putSticky(@NonNull Class<T> listenerClass, @NonNull String signature,
+                                 @Nullable String tag, @EventsOnThread.ThreadType int threadType,
+                                 @NonNull Invocation<T> invocation) {
+        StickyCache.Call call = new StickyCache.Call(listenerClass, signature, tag, threadType,
+                invocation);
+        synchronized (mStickyCalls) {
+            mStickyCalls.put(call);
+            return getSubscriptions(listenerClass, tag);
+        }
+    }
+
+    /**
+     * Keep latest calls of a batch in one step
+     *
+     * @see #putSticky(Class, String, String, int, Invocation)
+     */
+    @NonNull
+    Subscription[] putSticky(@NonNull Class<?> listenerClass, @Nullable String tag,
+                             @NonNull List<StickyCache.Call> calls) {
+        synchronized (mStickyCalls) {
+            for (StickyCache.Call call : calls) {
+                mStickyCalls.put(call);
+            }
+            return getSubscriptions(listenerClass, tag);
+        }
+    }
+
+    /**
+     * Get kept sticky calls to replay to a newly added subscription. It should be called with
+     * lock of sticky cache held since the subscription was added.
+     *
+     * @param subscription Added subscription, or null if registration didn't add one
+     */
+    @NonNull
+    private List<StickyCache.Call> getStickyCalls(@Nullable Subscription subscription) {
+        if (subscription == null || mStickyCalls.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return mStickyCalls.get(subscription);
+    }
+
+    /**
+     * Deliver kept sticky calls to a newly added subscription on threads of their methods.
+     * Calls published after the subscription was added reach it directly, so a replayed call
+     * is skipped if a newer call has replaced it by the time it runs. Otherwise it could
+     * arrive after the newer call.
+     */
+    private void replaySticky(@Nullable Subscription subscription,
+                              @NonNull List<StickyCache.Call> calls) {
+        if (subscription == null || calls.isEmpty()) {
+            return;
+        }
+        Object listener = subscription.get();
+        if (listener == null) {
+            return;
+        }
+        for (StickyCache.Call call : calls) {
+            Invocation<Object> invocation = (Invocation<Object>) call.invocation;
+            scheduleRunnable(subscription, () -> {
+                if (!mStickyCalls.isReplaced(call)) {
+                    invocation.invoke(listener);
+                }
+            }, call.threadType, call.listenerClass, call.methodName, call.tag);
+        }
+    }
+
+    void onPublish(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                   @Nullable String tag) {
+        EventsMonitor monitor = mMonitor;
+        if (monitor != null) {
+            monitor.onPublish(listenerClass, methodName, tag);
+        }
+    }
+
+    /**
+     * Begin a delivery on current thread. Asynchronous deliveries of generated helpers also
+     * call it when they are scheduled.
+     *
+     * @return Start time to pass to {@link #endDelivery(Class, String, String, int, long)},
+     * or 0 if monitoring is disabled
+     */
+    long beginDelivery() {
+        return mMonitor != null ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * End a delivery on current thread, which has no queued time
+     */
+    void endDelivery(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                     @Nullable String tag, @EventsOnThread.ThreadType int threadType,
+                     long startTime) {
+        endDelivery(listenerClass, methodName, tag, threadType, 0L, startTime);
+    }
+
+    /**
+     * End a delivery which was scheduled at scheduled time. Queued time is unknown if
+     * monitoring was enabled after scheduling.
+     */
+    void endDelivery(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                     @Nullable String tag, @EventsOnThread.ThreadType int threadType,
+                     long scheduledTime, long startTime) {
+        if (startTime == 0L) {
+            return;
+        }
+        EventsMonitor monitor = mMonitor;
+        if (monitor != null) {
+            monitor.onDelivered(listenerClass, methodName, tag, threadType,
+                    scheduledTime != 0L ? startTime - scheduledTime : 0L,
+                    System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Schedule a delivery to listener of subscription. {@link EventsOnThread#SERIAL_THREAD}
+     * deliveries are queued in mailbox of the subscription, and others are scheduled by
+     * {@link #scheduleRunnable(Runnable, int, Class, String, String)}.
+     */
+    void scheduleRunnable(@NonNull Subscription subscription, @NonNull Runnable runnable,
+                          @EventsOnThread.ThreadType int threadType,
+                          @NonNull Class<?> listenerClass, @NonNull String methodName,
+                          @Nullable String tag) {
+        if (threadType != EventsOnThread.SERIAL_THREAD) {
+            scheduleRunnable(runnable, threadType, listenerClass, methodName, tag);
+            return;
+        }
+        EventsMonitor monitor = mMonitor;
+        if (monitor == null) {
+            subscription.getMailbox().enqueue(runnable, getNewThreadExecutor());
+            return;
+        }
+        SerialMailbox mailbox = subscription.getMailbox();
+        mailbox.enqueue(new MonitoredRunnable(runnable, monitor, threadType,
+                listenerClass, methodName, tag), getNewThreadExecutor());
+        monitor.onBacklog(threadType, mailbox.size());
+    }
+
+    /**
+     * Schedule a delivery of generated helpers to listener of subscription. Unlike
+     * {@link #scheduleRunnable(Subscription, Runnable, int, Class, String, String)}, the
+     * delivery records its time by {@link #endDelivery(Class, String, String, int, long, long)}
+     * itself, so it isn't wrapped when monitoring is enabled.
+     */
+    void scheduleDelivery(@NonNull Subscription subscription, @NonNull Runnable runnable,
+                          @EventsOnThread.ThreadType int threadType,
+                          @NonNull Class<?> listenerClass, @NonNull String methodName,
+                          @Nullable String tag) {
+        scheduleRunnable(subscription, runnable, threadType);
+        EventsMonitor monitor = mMonitor;
+        if (monitor != null) {
+            reportBacklog(monitor, subscription, threadType);
+        }
+    }
+
+    /**
+     * Schedule a delivery of method annotated with {@link EventsQueue} to listener of
+     * subscription. The delivery waits in bounded queue of the subscription and method, which
+     * applies overflow policy when it is full. Like
+     * {@link #scheduleDelivery(Subscription, Runnable, int, Class, String, String)}, the
+     * delivery records its time itself.
+     *
+     * {@link EventsQueue#BLOCK} policy never waits on main thread, which may have to take
+     * pending calls itself. The call is dropped and reported instead.
+     */
+    void scheduleBounded(@NonNull Subscription subscription, @NonNull BoundedQueue.Spec spec,
+                         @NonNull Runnable runnable, @EventsOnThread.ThreadType int threadType,
+                         @NonNull Class<?> listenerClass, @NonNull String methodName,
+                         @Nullable String tag) {
+        BoundedQueue queue = subscription.getBoundedQueue(spec);
+        int result = queue.offer(runnable, canWait(spec, threadType));
+        if (result == BoundedQueue.QUEUED) {
+            scheduleRunnable(subscription, queue, threadType);
+        }
+        reportBounded(queue, spec, result == BoundedQueue.DROPPED, threadType, listenerClass,
+                methodName, tag);
+    }
+
+    /**
+     * Take room for a call of a batch in bounded queue of the subscription and method. The
+     * call is delivered in order with other calls of the batch by its task, so it doesn't
+     * wait in the queue, but overflow policy applies to it like to other calls.
+     *
+     * @return Reservation to release before delivering the call, or null if it's dropped
+     * @see BoundedQueue#reserve(boolean)
+     */
+    @Nullable
+    BoundedQueue.Reservation reserveBounded(@NonNull Subscription subscription,
+                                            @NonNull BoundedQueue.Spec spec,
+                                            @EventsOnThread.ThreadType int threadType,
+                                            @NonNull Class<?> listenerClass,
+                                            @NonNull String methodName, @Nullable String tag) {
+        BoundedQueue queue = subscription.getBoundedQueue(spec);
+        BoundedQueue.Reservation reservation = queue.reserve(canWait(spec, threadType));
+        reportBounded(queue, spec, reservation == null, threadType, listenerClass, methodName,
+                tag);
+        return reservation;
+    }
+
+    private boolean canWait(@NonNull BoundedQueue.Spec spec,
+                            @EventsOnThread.ThreadType int threadType) {
+        if (spec.overflow != EventsQueue.BLOCK) {
+            return true;
+        }
+        if (threadType == EventsOnThread.MAIN_THREAD
+                || threadType == EventsOnThread.MAIN_IDLE_THREAD) {
+            return !requireMainScheduler().isCurrentThread();
+        }
+        return mMainScheduler == null || !mMainScheduler.isCurrentThread();
+    }
+
+    private void reportBounded(@NonNull BoundedQueue queue, @NonNull BoundedQueue.Spec spec,
+                               boolean dropped, @EventsOnThread.ThreadType int threadType,
+                               @NonNull Class<?> listenerClass, @NonNull String methodName,
+                               @Nullable String tag) {
+        EventsMonitor monitor = mMonitor;
+        if (monitor == null) {
+            return;
+        }
+        if (dropped && (spec.overflow == EventsQueue.REPORT_AND_DROP
+                || spec.overflow == EventsQueue.BLOCK)) {
+            monitor.onDropped(listenerClass, methodName, tag, threadType);
+        }
+        monitor.onBacklog(threadType, queue.size());
+    }
+
+    void scheduleRunnable(@NonNull Subscription subscription, @NonNull Runnable runnable,
+                          @EventsOnThread.ThreadType int threadType) {
+        if (threadType == EventsOnThread.SERIAL_THREAD) {
+            subscription.getMailbox().enqueue(runnable, getNewThreadExecutor());
+        } else {
+            scheduleRunnable(runnable, threadType);
+        }
+    }
+
+    void scheduleRunnable(Runnable runnable, @EventsOnThread.ThreadType int threadType,
+                          @NonNull Class<?> listenerClass, @NonNull String methodName,
+                          @Nullable String tag) {
+        EventsMonitor monitor = mMonitor;
+        if (monitor == null) {
+            scheduleRunnable(runnable, threadType);
+            return;
+        }
+        scheduleRunnable(new MonitoredRunnable(runnable, monitor, threadType,
+                listenerClass, methodName, tag), threadType);
+        reportBacklog(monitor, null, threadType);
+    }
+
+    /**
+     * Report depth of the queue which a delivery of thread type was scheduled to
+     *
+     * @param subscription Target subscription, whose mailbox queues serial deliveries
+     */
+    private void reportBacklog(@NonNull EventsMonitor monitor,
+                               @Nullable Subscription subscription,
+                               @EventsOnThread.ThreadType int threadType) {
+        if (threadType == EventsOnThread.SERIAL_THREAD && subscription != null) {
+            monitor.onBacklog(threadType, subscription.getMailbox().size());
+        } else if (threadType == EventsOnThread.MAIN_THREAD && mMainScheduler != null) {
+            monitor.onBacklog(threadType, mMainScheduler.getQueueDepth());
+        } else if (threadType == EventsOnThread.MAIN_IDLE_THREAD && mMainScheduler != null) {
+            monitor.onBacklog(threadType, mMainScheduler.getIdleQueueDepth());
+        } else if (threadType != EventsOnThread.CURRENT_THREAD) {
+            monitor.onBacklog(threadType, EventsExecutors.getQueueDepth(getExecutor(threadType)));
+        }
+    }
+
+    void scheduleRunnable(Runnable runnable, @EventsOnThread.ThreadType int threadType) {
+        if (threadType == EventsOnThread.CURRENT_THREAD) {
+            runnable.run();
+        } else if (threadType == EventsOnThread.MAIN_THREAD) {
+            EventsScheduler scheduler = requireMainScheduler();
+            if (mImmediateMainDelivery && scheduler.isCurrentThread()
+                    && scheduler.getQueueDepth() == 0) {
+                runnable.run();
+            } else {
+                scheduler.schedule(runnable);
+            }
+        } else if (threadType == EventsOnThread.MAIN_IDLE_THREAD) {
+            requireMainScheduler().scheduleIdle(runnable);
+        } else {
+            // Serial deliveries without a target listener have nothing to be ordered with
+            getExecutor(threadType).execute(runnable);
+        }
+    }
+
+    /**
+     * Get executor of a worker thread type
+     */
+    @NonNull
+    private Executor getExecutor(@EventsOnThread.ThreadType int threadType) {
+        if (threadType == EventsOnThread.NEW_THREAD
+                || threadType == EventsOnThread.SERIAL_THREAD) {
+            return getNewThreadExecutor();
+        } else if (threadType == EventsOnThread.IO_THREAD) {
+            return getIoExecutor();
+        } else if (threadType == EventsOnThread.COMPUTATION_THREAD) {
+            return getComputationExecutor();
+        }
+        throw new IllegalArgumentException("Unknown thread type " + threadType);
+    }
+
+    @NonNull
+    private EventsScheduler requireMainScheduler() {
+        return requireNonNull(mMainScheduler, "You should create EventsBus with a main thread "
+                + "scheduler before calling methods on main thread");
+    }
+
+    <T> T proxyOf(Class<T> listenerClass, String tag) {
+        return (T) Proxy.newProxyInstance(listenerClass.getClassLoader(),
+                new Class<?>[]{ listenerClass },
+                new ListenerInvocationHandler(listenerClass, tag));
+    }
+
+    /**
+     * Cached helpers of a listener class. Helper without tag is stored in a field, so
+     * the common lookup doesn't need hashing.
+     */
+    private static final class HelperSlot {
+
+        private volatile Object mUntagged;
+        private final ConcurrentMap<String, Object> mTagged = new ConcurrentHashMap<>();
+
+        Object get(@Nullable String tag) {
+            return tag == null ? mUntagged : mTagged.get(tag);
+        }
+
+        Object putIfAbsent(@Nullable String tag, @NonNull Object helper) {
+            if (tag != null) {
+                Object previous = mTagged.putIfAbsent(tag, helper);
+                return previous != null ? previous : helper;
+            }
+            synchronized (this) {
+                if (mUntagged == null) {
+                    mUntagged = helper;
+                }
+                return mUntagged;
+            }
+        }
+
+    }
+
+    private static final class CompositeMonitor implements EventsMonitor {
+
+        private final EventsMonitor mFirst;
+        private final EventsMonitor mSecond;
+
+        CompositeMonitor(EventsMonitor first, EventsMonitor second) {
+            mFirst = first;
+            mSecond = second;
+        }
+
+        @Override
+        public void onPublish(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                              @Nullable String tag) {
+            mFirst.onPublish(listenerClass, methodName, tag);
+            mSecond.onPublish(listenerClass, methodName, tag);
+        }
+
+        @Override
+        public void onDelivered(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                                @Nullable String tag, int threadType,
+                                long queuedNanos, long executionNanos) {
+            mFirst.onDelivered(listenerClass, methodName, tag, threadType,
+                    queuedNanos, executionNanos);
+            mSecond.onDelivered(listenerClass, methodName, tag, threadType,
+                    queuedNanos, executionNanos);
+        }
+
+        @Override
+        public void onBacklog(int threadType, int depth) {
+            mFirst.onBacklog(threadType, depth);
+            mSecond.onBacklog(threadType, depth);
+        }
+
+        @Override
+        public void onDropped(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                              @Nullable String tag, int threadType) {
+            mFirst.onDropped(listenerClass, methodName, tag, threadType);
+            mSecond.onDropped(listenerClass, methodName, tag, threadType);
+        }
+
+    }
+
+    /**
+     * Runnable wrapper which reports queued and execution time to monitor. Deliveries of
+     * generated helpers record their time themselves and aren't wrapped.
+     */
+    private static final class MonitoredRunnable implements Runnable {
+
+        private final Runnable mRunnable;
+        private final EventsMonitor mMonitor;
+        private final int mThreadType;
+        private final Class<?> mListenerClass;
+        private final String mMethodName;
+        private final String mTag;
+        private final long mScheduledTime = System.nanoTime();
+
+        MonitoredRunnable(Runnable runnable, EventsMonitor monitor, int threadType,
+                          Class<?> listenerClass, String methodName, String tag) {
+            mRunnable = runnable;
+            mMonitor = monitor;
+            mThreadType = threadType;
+            mListenerClass = listenerClass;
+            mMethodName = methodName;
+            mTag = tag;
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+            try {
+                mRunnable.run();
+            } finally {
+                mMonitor.onDelivered(mListenerClass, mMethodName, mTag, mThreadType,
+                        startTime - mScheduledTime, System.nanoTime() - startTime);
+            }
+        }
+
+    }
+
+    private class ListenerInvocationHandler implements InvocationHandler {
+
+        private Class<?> listenerClass;
+        private String tag;
+
+        ListenerInvocationHandler(Class<?> listenerClass, String tag) {
+            this.listenerClass = listenerClass;
+            this.tag = tag;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Ignore ignoreAnnotation = method.getAnnotation(Ignore.class);
+            if (ignoreAnnotation != null) {
+                throw new UnsupportedOperationException("Method " + method + " is ignored. "
+                        + "If you want to call this method by helpers, "
+                        + "please remove @Ignore annotation from interface.");
+            }
+
+            if (method.getReturnType() != void.class) {
+                throw new UnsupportedOperationException("Method " + method + " in "
+                        + listenerClass
+                        + " class doesn't return void type.");
+            }
+
+            EventsOnThread annotation = method.getAnnotation(EventsOnThread.class);
+            int threadType = EventsOnThread.CURRENT_THREAD;
+            if (annotation != null) {
+                threadType = annotation.value();
+            }
+
+            Subscription[] subscriptions = null;
+            if (method.getAnnotation(Sticky.class) != null) {
+                subscriptions = putSticky(listenerClass, signatureOf(method), tag, threadType,
+                        listener -> invokeMethod(method, listener, args));
+            }
+
+            int keyIndex = findKeyParameter(method);
+            if (keyIndex >= 0) {
+                subscriptions = getSubscriptions(listenerClass, tag, args[keyIndex]);
+            } else if (subscriptions == null) {
+                subscriptions = getSubscriptions(listenerClass, tag);
+            }
+            onPublish(listenerClass, method.getName(), tag);
+            for (Subscription subscription : subscriptions) {
+                Object listener = subscription.get();
+                if (listener == null) {
+                    continue;
+                }
+                scheduleRunnable(subscription, () -> invokeMethod(method, listener, args),
+                        threadType, listenerClass, method.getName(), tag);
+            }
+            return null;
+        }
+
+        private void invokeMethod(Method method, Object listener, Object[] args) {
+            try {
+                method.invoke(listener, args);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private String signatureOf(Method method) {
+            StringBuilder signature = new StringBuilder(method.getName()).append("(");
+            for (Class<?> parameterType : method.getParameterTypes()) {
+                if (signature.charAt(signature.length() - 1) != '(') {
+                    signature.append(",");
+                }
+                signature.append(parameterType.getTypeName());
+            }
+            return signature.append(")").toString();
+        }
+
+        private int findKeyParameter(Method method) {
+            Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+            for (int i = 0; i < parameterAnnotations.length; i++) {
+                for (Annotation annotation : parameterAnnotations[i]) {
+                    if (annotation instanceof EventsKey) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+    }
+
+}
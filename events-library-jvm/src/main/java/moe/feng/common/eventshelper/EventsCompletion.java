@@ -0,0 +1,78 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completion of a parallel publish. It is done when every listener has received all its
+ * calls. Exceptions thrown by listeners don't stop other deliveries and are collected here.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ * @see EventsBatch#publishParallel()
+ */
+public final class EventsCompletion {
+
+    private final CountDownLatch mLatch;
+    private final List<Throwable> mErrors = Collections.synchronizedList(new ArrayList<>());
+
+    EventsCompletion(int count) {
+        mLatch = new CountDownLatch(count);
+    }
+
+    /**
+     * Check if all deliveries are done
+     *
+     * @return True if done
+     */
+    public boolean isDone() {
+        return mLatch.getCount() == 0;
+    }
+
+    /**
+     * Wait until all deliveries are done
+     *
+     * @throws InterruptedException If current thread is interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        mLatch.await();
+    }
+
+    /**
+     * Wait until all deliveries are done or timeout elapses
+     *
+     * @param timeout Maximum time to wait
+     * @param unit Unit of timeout
+     * @return True if done, or false if timeout elapsed
+     * @throws InterruptedException If current thread is interrupted while waiting
+     */
+    public boolean await(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        return mLatch.await(timeout, unit);
+    }
+
+    /**
+     * Get exceptions thrown by listeners so far. Call it after {@link #await()} to get
+     * all of them.
+     *
+     * @return Copy of collected exceptions
+     */
+    @NonNull
+    public List<Throwable> getErrors() {
+        synchronized (mErrors) {
+            return new ArrayList<>(mErrors);
+        }
+    }
+
+    void addError(@NonNull Throwable error) {
+        mErrors.add(error);
+    }
+
+    void countDown() {
+        mLatch.countDown();
+    }
+
+}
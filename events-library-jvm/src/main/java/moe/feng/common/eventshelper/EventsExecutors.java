@@ -0,0 +1,286 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Factory methods of executors used by {@link EventsBus} to run
+ * {@link EventsOnThread#NEW_THREAD}, {@link EventsOnThread#IO_THREAD} and
+ * {@link EventsOnThread#COMPUTATION_THREAD} methods and parallel batches, and of schedulers
+ * to run {@link EventsOnThread#MAIN_THREAD} methods.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ */
+public final class EventsExecutors {
+
+    /**
+     * Maximum count of worker threads of {@link #newDefaultExecutor()}
+     */
+    public static final int DEFAULT_MAX_THREADS = 16;
+
+    /**
+     * Maximum count of worker threads of {@link #newIoExecutor()}
+     */
+    public static final int IO_MAX_THREADS = 64;
+
+    private static final long KEEP_ALIVE_SECONDS = 30L;
+
+    // Executors#newVirtualThreadPerTaskExecutor, or null if virtual threads are unavailable
+    private static final Method sNewVirtualThreadExecutor = findNewVirtualThreadExecutor();
+
+    private EventsExecutors() {
+        throw new InstantiationError();
+    }
+
+    /**
+     * Create the default executor: an elastic pool which starts a worker for each delivery until
+     * there are {@link #DEFAULT_MAX_THREADS} workers, so a few blocking listeners don't starve
+     * others. Further deliveries wait in an unbounded queue, and deliveries never run on the
+     * publisher thread.
+     *
+     * @return A new executor
+     */
+    @NonNull
+    public static ThreadPoolExecutor newDefaultExecutor() {
+        return newElasticExecutor(DEFAULT_MAX_THREADS, "EventsHelper-worker-");
+    }
+
+    /**
+     * Create a bounded executor. Idle workers will be released after a while. Pass
+     * {@link ThreadPoolExecutor.CallerRunsPolicy} explicitly if deliveries may run on the
+     * publisher thread when the executor is full.
+     *
+     * @param maxThreads Maximum count of worker threads
+     * @param queueCapacity Maximum count of pending deliveries
+     * @param rejectionPolicy Policy to apply when workers and queue are both full
+     * @return A new executor
+     */
+    @NonNull
+    public static ThreadPoolExecutor newBoundedExecutor(int maxThreads, int queueCapacity,
+                                                        @NonNull RejectedExecutionHandler
+                                                                rejectionPolicy) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("maxThreads should be positive.");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity should be positive.");
+        }
+        requireNonNull(rejectionPolicy, "Rejection policy cannot be null.");
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new NamedThreadFactory("EventsHelper-worker-"),
+                rejectionPolicy);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Create an elastic executor for {@link EventsOnThread#IO_THREAD} methods. A worker is
+     * started for each delivery until there are {@link #IO_MAX_THREADS} workers, so listeners
+     * blocking on I/O don't hold up each other. Further deliveries wait in an unbounded queue,
+     * and idle workers will be released after a while.
+     *
+     * @return A new executor
+     */
+    @NonNull
+    public static ThreadPoolExecutor newIoExecutor() {
+        return newElasticExecutor(IO_MAX_THREADS, "EventsHelper-io-");
+    }
+
+    /**
+     * Create an executor for {@link EventsOnThread#COMPUTATION_THREAD} methods, whose worker
+     * count equals available processors, so CPU-bound listeners don't oversubscribe cores.
+     * Further deliveries wait in an unbounded queue.
+     *
+     * @return A new executor
+     */
+    @NonNull
+    public static ThreadPoolExecutor newComputationExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("EventsHelper-computation-"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Check whether virtual threads are available on current runtime (Java 21 or later)
+     *
+     * @return True if {@link #newVirtualThreadExecutor()} is supported
+     */
+    public static boolean isVirtualThreadSupported() {
+        return sNewVirtualThreadExecutor != null;
+    }
+
+    /**
+     * Create an executor which starts a virtual thread per delivery. Listeners blocking on
+     * I/O don't hold platform threads, so lots of deliveries can be pending concurrently.
+     *
+     * @return A new executor
+     * @throws UnsupportedOperationException If virtual threads are unavailable
+     * @see #isVirtualThreadSupported()
+     */
+    @NonNull
+    public static ExecutorService newVirtualThreadExecutor() {
+        if (sNewVirtualThreadExecutor == null) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads are unavailable on current runtime.");
+        }
+        try {
+            return (ExecutorService) sNewVirtualThreadExecutor.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads are unavailable on current runtime.", e);
+        }
+    }
+
+    /**
+     * Create a virtual thread executor if supported, otherwise the default executor
+     *
+     * @return A new executor
+     * @see #newVirtualThreadExecutor()
+     * @see #newDefaultExecutor()
+     */
+    @NonNull
+    public static ExecutorService newVirtualThreadExecutorOrDefault() {
+        return isVirtualThreadSupported() ? newVirtualThreadExecutor() : newDefaultExecutor();
+    }
+
+    /**
+     * Create a work-stealing pool for {@link EventsBatch#publishParallel()}, whose parallelism
+     * equals available processors. Workers are daemon threads.
+     *
+     * @return A new executor
+     */
+    @NonNull
+    public static ForkJoinPool newParallelExecutor() {
+        return new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                new NamedWorkerThreadFactory("EventsHelper-parallel-"), null, true);
+    }
+
+    /**
+     * Create a scheduler which runs main thread calls by executor. The executor should run
+     * calls in order, such as a single thread executor.
+     *
+     * @param executor Executor of main thread
+     * @return A new scheduler
+     */
+    @NonNull
+    public static EventsScheduler asScheduler(@NonNull Executor executor) {
+        return new ExecutorScheduler(requireNonNull(executor, "Executor cannot be null."));
+    }
+
+    /**
+     * Get count of deliveries waiting in executor queue
+     *
+     * @param executor Executor
+     * @return Queue depth, or -1 if the executor doesn't expose its queue
+     */
+    public static int getQueueDepth(@NonNull Executor executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        if (executor instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool) executor;
+            return (int) Math.min(Integer.MAX_VALUE,
+                    pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+        }
+        return -1;
+    }
+
+    private static ThreadPoolExecutor newElasticExecutor(int maxThreads, String threadPrefix) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory(threadPrefix));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static Method findNewVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private static final class ExecutorScheduler implements EventsScheduler {
+
+        private final Executor mExecutor;
+
+        ExecutorScheduler(Executor executor) {
+            mExecutor = executor;
+        }
+
+        @Override
+        public void schedule(@NonNull Runnable runnable) {
+            mExecutor.execute(runnable);
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return EventsExecutors.getQueueDepth(mExecutor);
+        }
+
+    }
+
+    static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String mPrefix;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            mPrefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, mPrefix + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+    static final class NamedWorkerThreadFactory
+            implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+        private final String mPrefix;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedWorkerThreadFactory(String prefix) {
+            mPrefix = prefix;
+        }
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread =
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(mPrefix + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
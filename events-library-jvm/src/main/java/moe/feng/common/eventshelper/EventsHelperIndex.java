@@ -0,0 +1,28 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Index of generated helpers. Implementations are generated by annotation processor when
+ * <code>eventsHelperIndex</code> option is set, and let {@link EventsBus} create helpers
+ * without reflection.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ * @see EventsBus#addIndex(EventsHelperIndex)
+ */
+public interface EventsHelperIndex {
+
+    /**
+     * Create a helper of specific listener type
+     *
+     * @param listenerClass The class of specific listener type
+     * @param tag Specific tag name
+     * @param eventsBus EventsBus which the helper belongs to
+     * @return Helper instance, or null if this index doesn't contain the listener type
+     */
+    @Nullable
+    Object newHelper(@NonNull Class<?> listenerClass, @Nullable String tag,
+                     @NonNull EventsBus eventsBus);
+
+}
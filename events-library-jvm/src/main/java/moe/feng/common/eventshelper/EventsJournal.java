@@ -0,0 +1,409 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Journal which records published calls into memory-mapped segment files, so event streams
+ * can be captured cheaply and replayed later by {@link EventsReplayer}.
+ *
+ * Each record holds a timestamp, listener interface, method, tag and arguments. Encoding code
+ * is generated per method, and only methods whose parameters are primitives or Strings are
+ * recorded. Calls recorded by {@link EventsBatch} aren't journaled, and calls whose record
+ * is larger than a segment are skipped.
+ *
+ * Names of interfaces, methods and tags are written once per segment, and records refer to
+ * them by ids, so each segment can be read on its own. Recording doesn't allocate once
+ * all names are defined in current segment.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ * @see EventsBus#setJournal(EventsJournal)
+ */
+public final class EventsJournal implements Closeable {
+
+    /**
+     * Default size of segment files
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    static final int MAGIC = 0x45564A31; // "EVJ1"
+    static final String SEGMENT_PREFIX = "events-";
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    static final byte TYPE_DEFINE = 1;
+    static final byte TYPE_CALL = 2;
+
+    static final int NO_TAG = -1;
+
+    // Magic and origin time
+    static final int SEGMENT_HEADER_SIZE = 4 + 8;
+
+    private static final int MIN_SEGMENT_SIZE = 4096;
+    // Length, type, timestamp, interface, method and tag
+    private static final int CALL_HEADER_SIZE = 4 + 1 + 8 + 4 + 4 + 4;
+
+    private final File mDirectory;
+    private final int mSegmentSize;
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    private final long mOriginNanos = System.nanoTime();
+    private final long mOriginEpochNanos = System.currentTimeMillis() * 1_000_000L;
+
+    // Ids of names defined in current segment
+    private final Map<String, Integer> mIds = new HashMap<>();
+
+    // Arguments of the record being written
+    private ByteBuffer mArguments = ByteBuffer.allocate(256);
+    private long mTimestamp;
+    private String mListenerClassName;
+    private String mMethod;
+    private String mTag;
+
+    private int mSegmentIndex;
+    private FileChannel mChannel;
+    private MappedByteBuffer mSegment;
+    private boolean mClosed;
+
+    /**
+     * Open a journal with default segment size
+     *
+     * @param directory Directory of segment files
+     * @throws IOException If directory or first segment can't be created
+     */
+    public EventsJournal(@NonNull File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open a journal. New segments are created after existing segments in directory.
+     *
+     * @param directory Directory of segment files
+     * @param segmentSize Size of each segment file in bytes
+     * @throws IOException If directory or first segment can't be created
+     */
+    public EventsJournal(@NonNull File directory, int segmentSize) throws IOException {
+        requireNonNull(directory, "Directory argument cannot be null.");
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException(
+                    "segmentSize should be at least " + MIN_SEGMENT_SIZE + " bytes.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+        File[] segments = listSegments(directory);
+        mSegmentIndex = segments.length > 0 ? indexOf(segments[segments.length - 1]) : -1;
+        openNextSegment();
+    }
+
+    /**
+     * Force written records to storage
+     */
+    public void flush() {
+        mLock.lock();
+        try {
+            if (!mClosed) {
+                mSegment.force();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mLock.lock();
+        try {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mSegment.force();
+            mChannel.close();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Begin a record. Called by generated helpers, which put arguments and then call
+     * {@link #commit()} in a finally block.
+     */
+    void begin(@NonNull Class<?> listenerClass, @NonNull String method, @Nullable String tag) {
+        mLock.lock();
+        mTimestamp = mOriginEpochNanos + (System.nanoTime() - mOriginNanos);
+        mListenerClassName = listenerClass.getName();
+        mMethod = method;
+        mTag = tag;
+        mArguments.clear();
+    }
+
+    void commit() {
+        try {
+            if (!mClosed) {
+                writeCall();
+            }
+        } catch (IOException e) {
+            // Recording shouldn't break publishing. Stop journaling instead.
+            mClosed = true;
+        } finally {
+            mListenerClassName = null;
+            mMethod = null;
+            mTag = null;
+            mLock.unlock();
+        }
+    }
+
+    void putBoolean(boolean value) {
+        putByte(value ? (byte) 1 : (byte) 0);
+    }
+
+    void putByte(byte value) {
+        ensureArgumentsCapacity(1).put(value);
+    }
+
+    void putShort(short value) {
+        ensureArgumentsCapacity(2).putShort(value);
+    }
+
+    void putChar(char value) {
+        ensureArgumentsCapacity(2).putChar(value);
+    }
+
+    void putInt(int value) {
+        ensureArgumentsCapacity(4).putInt(value);
+    }
+
+    void putLong(long value) {
+        ensureArgumentsCapacity(8).putLong(value);
+    }
+
+    void putFloat(float value) {
+        ensureArgumentsCapacity(4).putFloat(value);
+    }
+
+    void putDouble(double value) {
+        ensureArgumentsCapacity(8).putDouble(value);
+    }
+
+    void putString(@Nullable String value) {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        int length = value.length();
+        ByteBuffer arguments = ensureArgumentsCapacity(4 + length * 2);
+        arguments.putInt(length);
+        for (int i = 0; i < length; i++) {
+            arguments.putChar(value.charAt(i));
+        }
+    }
+
+    private ByteBuffer ensureArgumentsCapacity(int size) {
+        if (mArguments.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(
+                    Math.max(mArguments.capacity() * 2, mArguments.position() + size));
+            mArguments.flip();
+            grown.put(mArguments);
+            mArguments = grown;
+        }
+        return mArguments;
+    }
+
+    private void writeCall() throws IOException {
+        int recordSize = CALL_HEADER_SIZE + mArguments.position();
+        // Keep room for the end mark of segment
+        if (mSegment.remaining() < recordSize + 4 + definitionsSize()) {
+            openNextSegment();
+            if (mSegment.remaining() < recordSize + 4 + definitionsSize()) {
+                // Record can't fit in any segment
+                return;
+            }
+        }
+        int classId = idOf(mListenerClassName);
+        int methodId = idOf(mMethod);
+        int tagId = mTag != null ? idOf(mTag) : NO_TAG;
+        mSegment.putInt(recordSize - 4)
+                .put(TYPE_CALL)
+                .putLong(mTimestamp)
+                .putInt(classId)
+                .putInt(methodId)
+                .putInt(tagId);
+        mArguments.flip();
+        mSegment.put(mArguments);
+    }
+
+    /**
+     * Get size of definitions needed by current record in current segment
+     */
+    private int definitionsSize() {
+        int size = 0;
+        if (!mIds.containsKey(mListenerClassName)) {
+            size += definitionSize(mListenerClassName);
+        }
+        if (!mIds.containsKey(mMethod)) {
+            size += definitionSize(mMethod);
+        }
+        if (mTag != null && !mIds.containsKey(mTag)) {
+            size += definitionSize(mTag);
+        }
+        return size;
+    }
+
+    private static int definitionSize(String name) {
+        // Length, type, id, name length and chars
+        return 4 + 1 + 4 + 4 + name.length() * 2;
+    }
+
+    /**
+     * Get id of name in current segment, defining it if needed
+     */
+    private int idOf(String name) {
+        Integer id = mIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        int newId = mIds.size();
+        mSegment.putInt(definitionSize(name) - 4)
+                .put(TYPE_DEFINE)
+                .putInt(newId)
+                .putInt(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            mSegment.putChar(name.charAt(i));
+        }
+        mIds.put(name, newId);
+        return newId;
+    }
+
+    private void openNextSegment() throws IOException {
+        if (mSegment != null) {
+            // Zero length marks the end of segment
+            if (mSegment.remaining() >= 4) {
+                mSegment.putInt(0);
+            }
+            mSegment.force();
+            mChannel.close();
+        }
+        mSegmentIndex++;
+        File file = new File(mDirectory, nameOf(mSegmentIndex));
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        mChannel = randomAccessFile.getChannel();
+        mSegment = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+        mSegment.putInt(MAGIC).putLong(mOriginEpochNanos);
+        mIds.clear();
+    }
+
+    static String nameOf(int index) {
+        return SEGMENT_PREFIX + String.format("%08d", index) + SEGMENT_SUFFIX;
+    }
+
+    static int indexOf(File segment) {
+        String name = segment.getName();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * List segment files of directory in order
+     */
+    @NonNull
+    static File[] listSegments(@NonNull File directory) {
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX)
+                && name.endsWith(SEGMENT_SUFFIX));
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments, (a, b) -> Integer.compare(indexOf(a), indexOf(b)));
+        return segments;
+    }
+
+    /**
+     * Implemented by generated helpers which can replay journaled calls
+     */
+    interface Replayable {
+
+        /**
+         * Call method of helper with arguments read from reader
+         *
+         * @param method Method signature written by generated helper
+         * @param reader Reader positioned at arguments
+         * @return False if helper doesn't have the method
+         */
+        boolean replay(@NonNull String method, @NonNull Reader reader);
+
+    }
+
+    /**
+     * Reader of arguments of a journaled call. Called by generated helpers.
+     */
+    static final class Reader {
+
+        private ByteBuffer mBuffer;
+
+        void reset(@NonNull ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        boolean getBoolean() {
+            return mBuffer.get() != 0;
+        }
+
+        byte getByte() {
+            return mBuffer.get();
+        }
+
+        short getShort() {
+            return mBuffer.getShort();
+        }
+
+        char getChar() {
+            return mBuffer.getChar();
+        }
+
+        int getInt() {
+            return mBuffer.getInt();
+        }
+
+        long getLong() {
+            return mBuffer.getLong();
+        }
+
+        float getFloat() {
+            return mBuffer.getFloat();
+        }
+
+        double getDouble() {
+            return mBuffer.getDouble();
+        }
+
+        @Nullable
+        String getString() {
+            int length = mBuffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = mBuffer.getChar();
+            }
+            return new String(chars);
+        }
+
+    }
+
+}
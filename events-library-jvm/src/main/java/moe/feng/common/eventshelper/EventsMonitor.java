@@ -0,0 +1,60 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Monitor of events dispatching. Methods are called on publishing and delivering threads,
+ * so implementations should be thread-safe and cheap.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ * @see EventsBus#setMonitor(EventsMonitor)
+ * @see DefaultEventsMonitor
+ */
+public interface EventsMonitor {
+
+    /**
+     * Called when a method of helper is called
+     *
+     * @param listenerClass Listener interface
+     * @param methodName Name of called method
+     * @param tag Tag of helper
+     */
+    void onPublish(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                   @Nullable String tag);
+
+    /**
+     * Called after a listener method has been called
+     *
+     * @param listenerClass Listener interface
+     * @param methodName Name of called method
+     * @param tag Tag of helper
+     * @param threadType Thread type of method
+     * @param queuedNanos Time between scheduling and running delivery, or 0 if delivery ran
+     *                    on current thread or its scheduling time is unknown
+     * @param executionNanos Time spent in listener method
+     */
+    void onDelivered(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                     @Nullable String tag, @EventsOnThread.ThreadType int threadType,
+                     long queuedNanos, long executionNanos);
+
+    /**
+     * Called when a delivery is scheduled to an asynchronous thread
+     *
+     * @param threadType Thread type of delivery
+     * @param depth Count of deliveries waiting in queue, or -1 if unknown
+     */
+    void onBacklog(@EventsOnThread.ThreadType int threadType, int depth);
+
+    /**
+     * Called when a call is dropped by {@link EventsQueue#REPORT_AND_DROP} policy
+     *
+     * @param listenerClass Listener interface
+     * @param methodName Name of called method
+     * @param tag Tag of helper
+     * @param threadType Thread type of method
+     */
+    void onDropped(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                   @Nullable String tag, @EventsOnThread.ThreadType int threadType);
+
+}
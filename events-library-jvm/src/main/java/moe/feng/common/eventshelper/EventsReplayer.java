@@ -0,0 +1,167 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Replayer which reads calls recorded by {@link EventsJournal} and calls them on helpers of
+ * a bus, so listeners registered to the bus receive them again.
+ *
+ * Calls can be replayed at recorded speed, which keeps intervals between calls, or at full
+ * speed for throughput testing. Segments recorded by different journals are replayed one
+ * after another, without waiting for the time between their recordings. Calls of interfaces
+ * which can't be loaded, or whose helpers don't have the recorded method, are skipped.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ */
+public final class EventsReplayer {
+
+    private final EventsBus mEventsBus;
+    private final EventsJournal.Reader mReader = new EventsJournal.Reader();
+
+    private final Map<String, Class<?>> mClasses = new HashMap<>();
+
+    // First recorded timestamp and its replay time when replaying at recorded speed
+    private long mFirstTimestamp;
+    private long mStartNanos;
+    // Origin time of the journal which recorded last replayed segment
+    private long mOrigin;
+
+    /**
+     * Create a replayer
+     *
+     * @param eventsBus Bus whose helpers make replayed calls
+     */
+    public EventsReplayer(@NonNull EventsBus eventsBus) {
+        mEventsBus = requireNonNull(eventsBus, "EventsBus argument cannot be null.");
+    }
+
+    /**
+     * Replay all segments in journal directory in order
+     *
+     * @param directory Directory of journal
+     * @param recordedSpeed True to keep recorded intervals between calls, or false to replay
+     *                      calls as fast as possible
+     * @return Count of replayed calls
+     * @throws IOException If segments can't be read
+     * @throws InterruptedException If current thread is interrupted while waiting for next
+     *                              call at recorded speed
+     */
+    public int replay(@NonNull File directory, boolean recordedSpeed)
+            throws IOException, InterruptedException {
+        requireNonNull(directory, "Directory argument cannot be null.");
+        mFirstTimestamp = -1L;
+        int count = 0;
+        for (File segment : EventsJournal.listSegments(directory)) {
+            count += replaySegment(segment, recordedSpeed);
+        }
+        return count;
+    }
+
+    private int replaySegment(File segment, boolean recordedSpeed)
+            throws IOException, InterruptedException {
+        ByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r");
+             FileChannel channel = file.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < EventsJournal.SEGMENT_HEADER_SIZE
+                || buffer.getInt() != EventsJournal.MAGIC) {
+            throw new IOException(segment + " isn't a journal segment.");
+        }
+        long origin = buffer.getLong();
+        if (mFirstTimestamp >= 0 && origin != mOrigin) {
+            // Segment of another journal, whose calls start right after previous calls
+            mFirstTimestamp = -1L;
+        }
+        mOrigin = origin;
+
+        Map<Integer, String> names = new HashMap<>();
+        int count = 0;
+        while (buffer.remaining() >= 4) {
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            int end = buffer.position() + length;
+            byte type = buffer.get();
+            if (type == EventsJournal.TYPE_DEFINE) {
+                int id = buffer.getInt();
+                char[] chars = new char[buffer.getInt()];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = buffer.getChar();
+                }
+                names.put(id, new String(chars));
+            } else if (type == EventsJournal.TYPE_CALL) {
+                long timestamp = buffer.getLong();
+                String className = names.get(buffer.getInt());
+                String method = names.get(buffer.getInt());
+                int tagId = buffer.getInt();
+                String tag = tagId != EventsJournal.NO_TAG ? names.get(tagId) : null;
+                if (recordedSpeed) {
+                    waitUntil(timestamp);
+                }
+                mReader.reset(buffer);
+                if (replayCall(className, method, tag)) {
+                    count++;
+                }
+            }
+            buffer.position(end);
+        }
+        return count;
+    }
+
+    private boolean replayCall(String className, String method, String tag) {
+        if (className == null || method == null) {
+            return false;
+        }
+        Class<?> listenerClass = loadClass(className);
+        if (listenerClass == null) {
+            return false;
+        }
+        Object helper = mEventsBus.of(listenerClass, tag);
+        return helper instanceof EventsJournal.Replayable
+                && ((EventsJournal.Replayable) helper).replay(method, mReader);
+    }
+
+    private Class<?> loadClass(String className) {
+        if (mClasses.containsKey(className)) {
+            return mClasses.get(className);
+        }
+        Class<?> listenerClass;
+        try {
+            listenerClass = Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            listenerClass = null;
+        }
+        mClasses.put(className, listenerClass);
+        return listenerClass;
+    }
+
+    private void waitUntil(long timestamp) throws InterruptedException {
+        if (mFirstTimestamp < 0) {
+            mFirstTimestamp = timestamp;
+            mStartNanos = System.nanoTime();
+            return;
+        }
+        long deadline = mStartNanos + (timestamp - mFirstTimestamp);
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+}
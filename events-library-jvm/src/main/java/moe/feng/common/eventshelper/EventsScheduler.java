@@ -0,0 +1,58 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Scheduler which runs {@link EventsOnThread#MAIN_THREAD} and
+ * {@link EventsOnThread#MAIN_IDLE_THREAD} calls of an {@link EventsBus} on its main thread.
+ * Implementations should run scheduled calls in order.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ * @see EventsExecutors#asScheduler(java.util.concurrent.Executor)
+ */
+public interface EventsScheduler {
+
+    /**
+     * Schedule a call to run on main thread
+     *
+     * @param runnable Call to run
+     */
+    void schedule(@NonNull Runnable runnable);
+
+    /**
+     * Get count of calls waiting to run
+     *
+     * @return Queue depth, or -1 if unknown
+     */
+    int getQueueDepth();
+
+    /**
+     * Check whether current thread is the main thread of this scheduler. It enables
+     * {@link EventsBus#setImmediateMainDelivery(boolean)} to run calls without scheduling.
+     *
+     * @return True if called on main thread. By default, it returns false.
+     */
+    default boolean isCurrentThread() {
+        return false;
+    }
+
+    /**
+     * Schedule a call to run on main thread when it is idle. By default, it is scheduled
+     * like other calls by {@link #schedule(Runnable)}.
+     *
+     * @param runnable Call to run
+     */
+    default void scheduleIdle(@NonNull Runnable runnable) {
+        schedule(runnable);
+    }
+
+    /**
+     * Get count of idle calls waiting to run
+     *
+     * @return Queue depth, or -1 if unknown
+     */
+    default int getIdleQueueDepth() {
+        return getQueueDepth();
+    }
+
+}
@@ -0,0 +1,250 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracer which records dispatch spans into a fixed-size ring buffer and exports them in
+ * Chrome Trace Event format, which can be opened by <code>chrome://tracing</code> or Perfetto.
+ *
+ * Recorded spans are publishes of helper methods, queued time of asynchronous deliveries,
+ * listener invocations on their threads, queue depths and dropped calls. Recording claims
+ * a slot with an atomic increment and writes into preallocated arrays, so it doesn't lock
+ * or allocate. Deliveries of generated helpers aren't wrapped for tracing either, while calls
+ * through proxies, sticky replays and conflated calls allocate a wrapper per delivery.
+ * When the buffer is full, the oldest records are overwritten.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ * @see EventsBus#setTracer(EventsTracer)
+ */
+public final class EventsTracer implements EventsMonitor {
+
+    /**
+     * Default count of records kept by tracer
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final int TYPE_PUBLISH = 1;
+    private static final int TYPE_QUEUED = 2;
+    private static final int TYPE_DELIVERY = 3;
+    private static final int TYPE_BACKLOG = 4;
+    private static final int TYPE_DROPPED = 5;
+
+    private final int mCapacity;
+    private final long mOrigin = System.nanoTime();
+    private final AtomicLong mNextSequence = new AtomicLong();
+
+    // Sequence of record in each slot. Negative while the slot is being written.
+    private final AtomicLongArray mSequences;
+    private final int[] mTypes;
+    private final long[] mTimestamps;
+    private final long[] mDurations;
+    private final int[] mThreadTypes;
+    private final Thread[] mThreads;
+    private final Class<?>[] mListenerClasses;
+    private final String[] mMethodNames;
+    private final String[] mTags;
+
+    public EventsTracer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a tracer
+     *
+     * @param capacity Count of records kept by tracer
+     */
+    public EventsTracer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be positive.");
+        }
+        mCapacity = capacity;
+        mSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            mSequences.set(i, -1L);
+        }
+        mTypes = new int[capacity];
+        mTimestamps = new long[capacity];
+        mDurations = new long[capacity];
+        mThreadTypes = new int[capacity];
+        mThreads = new Thread[capacity];
+        mListenerClasses = new Class<?>[capacity];
+        mMethodNames = new String[capacity];
+        mTags = new String[capacity];
+    }
+
+    @Override
+    public void onPublish(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                          @Nullable String tag) {
+        record(TYPE_PUBLISH, System.nanoTime(), 0L, EventsOnThread.CURRENT_THREAD,
+                listenerClass, methodName, tag);
+    }
+
+    @Override
+    public void onDelivered(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                            @Nullable String tag, int threadType,
+                            long queuedNanos, long executionNanos) {
+        long startTime = System.nanoTime() - executionNanos;
+        if (queuedNanos > 0) {
+            record(TYPE_QUEUED, startTime - queuedNanos, queuedNanos, threadType,
+                    listenerClass, methodName, tag);
+        }
+        record(TYPE_DELIVERY, startTime, executionNanos, threadType,
+                listenerClass, methodName, tag);
+    }
+
+    @Override
+    public void onBacklog(int threadType, int depth) {
+        record(TYPE_BACKLOG, System.nanoTime(), depth, threadType, null, null, null);
+    }
+
+    @Override
+    public void onDropped(@NonNull Class<?> listenerClass, @NonNull String methodName,
+                          @Nullable String tag, int threadType) {
+        record(TYPE_DROPPED, System.nanoTime(), 0L, threadType, listenerClass, methodName, tag);
+    }
+
+    private void record(int type, long timestamp, long duration, int threadType,
+                        Class<?> listenerClass, String methodName, String tag) {
+        long sequence = mNextSequence.getAndIncrement();
+        int slot = (int) (sequence % mCapacity);
+        mSequences.set(slot, -1L);
+        mTypes[slot] = type;
+        mTimestamps[slot] = timestamp;
+        mDurations[slot] = duration;
+        mThreadTypes[slot] = threadType;
+        mThreads[slot] = Thread.currentThread();
+        mListenerClasses[slot] = listenerClass;
+        mMethodNames[slot] = methodName;
+        mTags[slot] = tag;
+        mSequences.set(slot, sequence);
+    }
+
+    /**
+     * Drop all records
+     */
+    public void clear() {
+        for (int i = 0; i < mCapacity; i++) {
+            mSequences.set(i, -1L);
+            mThreads[i] = null;
+            mListenerClasses[i] = null;
+        }
+    }
+
+    /**
+     * Write records in Chrome Trace Event JSON format. Records being written concurrently
+     * are skipped.
+     *
+     * @param writer Output writer
+     * @throws IOException If writer fails
+     */
+    public void writeChromeTrace(@NonNull Writer writer) throws IOException {
+        long end = mNextSequence.get();
+        long begin = Math.max(0, end - mCapacity);
+        Map<Long, String> threadNames = new HashMap<>();
+        boolean first = true;
+        writer.write("{\"traceEvents\":[");
+        for (long sequence = begin; sequence < end; sequence++) {
+            int slot = (int) (sequence % mCapacity);
+            int type = mTypes[slot];
+            long timestamp = mTimestamps[slot];
+            long duration = mDurations[slot];
+            int threadType = mThreadTypes[slot];
+            Thread thread = mThreads[slot];
+            Class<?> listenerClass = mListenerClasses[slot];
+            String methodName = mMethodNames[slot];
+            String tag = mTags[slot];
+            if (mSequences.get(slot) != sequence || thread == null) {
+                continue;
+            }
+            long threadId = thread.getId();
+            threadNames.put(threadId, thread.getName());
+
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            if (type == TYPE_BACKLOG) {
+                writer.write("{\"ph\":\"C\",\"pid\":0,\"tid\":" + threadId
+                        + ",\"ts\":" + toMicros(timestamp)
+                        + ",\"name\":\"backlog-" + threadType + "\""
+                        + ",\"args\":{\"depth\":" + duration + "}}");
+                continue;
+            }
+            String name = jsonString(listenerClass.getName() + "#" + methodName);
+            String args = ",\"args\":{\"tag\":" + (tag != null ? jsonString(tag) : "null")
+                    + ",\"threadType\":" + threadType + "}";
+            if (type == TYPE_PUBLISH || type == TYPE_DROPPED) {
+                writer.write("{\"ph\":\"i\",\"s\":\"t\",\"cat\":"
+                        + (type == TYPE_PUBLISH ? "\"publish\"" : "\"dropped\"")
+                        + ",\"pid\":0,\"tid\":" + threadId + ",\"ts\":" + toMicros(timestamp)
+                        + ",\"name\":" + name + args + "}");
+            } else if (type == TYPE_QUEUED) {
+                String common = ",\"cat\":\"queued\",\"id\":" + sequence
+                        + ",\"pid\":0,\"tid\":" + threadId + ",\"name\":" + name;
+                writer.write("{\"ph\":\"b\",\"ts\":" + toMicros(timestamp) + common + args
+                        + "},{\"ph\":\"e\",\"ts\":" + toMicros(timestamp + duration)
+                        + common + "}");
+            } else {
+                writer.write("{\"ph\":\"X\",\"cat\":\"delivery\",\"pid\":0,\"tid\":" + threadId
+                        + ",\"ts\":" + toMicros(timestamp) + ",\"dur\":" + duration / 1000.0
+                        + ",\"name\":" + name + args + "}");
+            }
+        }
+        for (Map.Entry<Long, String> entry : threadNames.entrySet()) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writer.write("{\"ph\":\"M\",\"pid\":0,\"tid\":" + entry.getKey()
+                    + ",\"name\":\"thread_name\",\"args\":{\"name\":"
+                    + jsonString(entry.getValue()) + "}}");
+        }
+        writer.write("],\"displayTimeUnit\":\"ns\"}");
+        writer.flush();
+    }
+
+    /**
+     * Export records in Chrome Trace Event JSON format
+     *
+     * @return JSON string
+     */
+    @NonNull
+    public String toChromeTraceJson() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeChromeTrace(writer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return writer.toString();
+    }
+
+    private String toMicros(long nanos) {
+        return String.valueOf((nanos - mOrigin) / 1000.0);
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+}
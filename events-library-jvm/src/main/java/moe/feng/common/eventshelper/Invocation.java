@@ -0,0 +1,12 @@
+package moe.feng.common.eventshelper;
+
+/**
+ * A call to a listener method with captured arguments
+ *
+ * @param <T> Listener type
+ */
+interface Invocation<T> {
+
+    void invoke(T listener);
+
+}
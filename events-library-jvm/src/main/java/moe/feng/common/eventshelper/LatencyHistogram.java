@@ -0,0 +1,83 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of nanosecond durations. Bucket <code>i</code> counts durations in
+ * <code>[2^(i-1), 2^i)</code> nanoseconds, and the last bucket counts longer ones.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Count of buckets. The last bucket starts from about 1.1 seconds.
+     */
+    public static final int BUCKET_COUNT = 32;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+    static int bucketOf(long nanos) {
+        if (nanos <= 0) {
+            return 0;
+        }
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * Get upper bound of bucket in nanoseconds
+     *
+     * @param bucket Bucket index
+     * @return Upper bound, or {@link Long#MAX_VALUE} for the last bucket
+     */
+    public static long upperBoundOf(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    void record(long nanos) {
+        mBuckets.incrementAndGet(bucketOf(nanos));
+    }
+
+    /**
+     * Copy current counts of buckets
+     *
+     * @return Counts of buckets
+     */
+    @NonNull
+    public long[] getCounts() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mBuckets.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Estimate percentile from bucket counts
+     *
+     * @param counts Counts of buckets
+     * @param percentile Percentile in range (0, 100]
+     * @return Upper bound of the bucket containing percentile, or 0 if there is no sample
+     */
+    public static long percentileOf(@NonNull long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(total * percentile / 100.0);
+        long accumulated = 0;
+        for (int i = 0; i < counts.length; i++) {
+            accumulated += counts[i];
+            if (accumulated >= threshold) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(counts.length - 1);
+    }
+
+}
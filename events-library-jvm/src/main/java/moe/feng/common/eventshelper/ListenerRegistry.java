@@ -0,0 +1,581 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Listeners registry indexed by listener interface, tag and key. Interfaces of a listener are
+ * resolved once per listener class and cached, so looking up subscribers of an interface only
+ * touches listeners which implement it. Subscribers of each key are merged with listeners
+ * registered without keys ahead of time, so looking up a key is a single hash lookup.
+ *
+ * Registry state is an immutable {@link Snapshot}. Writers copy the current snapshot and
+ * publish the new one by compare-and-set, so readers never lock and can iterate the returned
+ * arrays while other threads register or unregister listeners. Bulk writers apply all their
+ * listeners to one copy, rebuilding subscribers of each affected interface once.
+ *
+ * Weakly registered listeners are purged from the index once they have been collected. The
+ * purge happens when registry is accessed, including looking up subscriptions for dispatch.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ */
+final class ListenerRegistry {
+
+    static final Subscription[] EMPTY = new Subscription[0];
+
+    private final AtomicReference<Snapshot> mSnapshot = new AtomicReference<>(Snapshot.EMPTY);
+
+    private final ReferenceQueue<Object> mCollectedQueue = new ReferenceQueue<>();
+
+    // Listener interfaces of each listener class
+    private final ConcurrentMap<Class<?>, Set<Class<?>>> mInterfaces = new ConcurrentHashMap<>();
+
+    /**
+     * Collect all interfaces annotated with {@link EventsListener} in class hierarchy
+     *
+     * @param clazz Class of listener
+     * @return Listener interfaces
+     */
+    @NonNull
+    static Set<Class<?>> resolveListenerInterfaces(@NonNull Class<?> clazz) {
+        Set<Class<?>> result = new LinkedHashSet<>();
+        for (Class<?> current = clazz; current != null; current = current.getSuperclass()) {
+            collectListenerInterfaces(current, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get interfaces annotated with {@link EventsListener} in class hierarchy. They are
+     * resolved at first call for each class.
+     *
+     * @param clazz Class of listener
+     * @return Unmodifiable listener interfaces, which is empty if class isn't a listener
+     */
+    @NonNull
+    Set<Class<?>> getListenerInterfaces(@NonNull Class<?> clazz) {
+        Set<Class<?>> interfaces = mInterfaces.get(clazz);
+        if (interfaces == null) {
+            interfaces = Collections.unmodifiableSet(resolveListenerInterfaces(clazz));
+            Set<Class<?>> previous = mInterfaces.putIfAbsent(clazz, interfaces);
+            if (previous != null) {
+                interfaces = previous;
+            }
+        }
+        return interfaces;
+    }
+
+    private static void collectListenerInterfaces(Class<?> clazz, Set<Class<?>> result) {
+        for (Class<?> interfaceClass : clazz.getInterfaces()) {
+            if (interfaceClass.getAnnotation(EventsListener.class) != null) {
+                result.add(interfaceClass);
+            }
+            collectListenerInterfaces(interfaceClass, result);
+        }
+    }
+
+    @Nullable
+    Subscription register(@NonNull Object listener, @Nullable String tag, boolean weak) {
+        return register(listener, tag, null, weak);
+    }
+
+    /**
+     * Register a listener
+     *
+     * @param listener Listener
+     * @param tag Tag of listener
+     * @param keys Keys of calls to receive, or null to receive calls with any key
+     * @param weak Whether to hold listener by weak reference
+     * @return Added subscription, or null if listener is already registered the same way
+     */
+    @Nullable
+    Subscription register(@NonNull Object listener, @Nullable String tag,
+                          @Nullable Set<Object> keys, boolean weak) {
+        purgeCollected();
+        Subscription subscription = newSubscription(listener, tag, keys, weak);
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = mSnapshot.get();
+            Subscription old = current.registrations.get(subscription);
+            if (isSameRegistration(old, subscription)) {
+                return null;
+            }
+            next = current.without(old).with(subscription);
+        } while (!mSnapshot.compareAndSet(current, next));
+        return subscription;
+    }
+
+    /**
+     * Register listeners with the same tag in one snapshot update
+     *
+     * @param listeners Listeners
+     * @param tag Tag of listeners
+     * @param weak Whether to hold listeners by weak references
+     * @return Added subscriptions, without listeners already registered the same way
+     */
+    @NonNull
+    List<Subscription> registerAll(@NonNull Object[] listeners, @Nullable String tag,
+                                   boolean weak) {
+        purgeCollected();
+        // Later duplicates replace earlier ones, like registering them one by one
+        Map<Subscription, Subscription> subscriptions = new LinkedHashMap<>();
+        for (Object listener : listeners) {
+            Subscription subscription = newSubscription(listener, tag, null, weak);
+            subscriptions.remove(subscription);
+            subscriptions.put(subscription, subscription);
+        }
+        Snapshot current;
+        Snapshot next;
+        List<Subscription> added;
+        do {
+            current = mSnapshot.get();
+            added = new ArrayList<>(subscriptions.size());
+            List<Subscription> removed = new ArrayList<>();
+            for (Subscription subscription : subscriptions.values()) {
+                Subscription old = current.registrations.get(subscription);
+                if (isSameRegistration(old, subscription)) {
+                    continue;
+                }
+                if (old != null) {
+                    removed.add(old);
+                }
+                added.add(subscription);
+            }
+            if (added.isEmpty()) {
+                return added;
+            }
+            next = current.apply(added, removed);
+        } while (!mSnapshot.compareAndSet(current, next));
+        return added;
+    }
+
+    void unregister(@NonNull Object listener) {
+        purgeCollected();
+        Subscription key = Subscription.lookup(listener);
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = mSnapshot.get();
+            Subscription registered = current.registrations.get(key);
+            if (registered == null) {
+                return;
+            }
+            next = current.without(registered);
+        } while (!mSnapshot.compareAndSet(current, next));
+    }
+
+    /**
+     * Unregister listeners in one snapshot update
+     *
+     * @param listeners Listeners
+     */
+    void unregisterAll(@NonNull Object[] listeners) {
+        purgeCollected();
+        Subscription[] keys = new Subscription[listeners.length];
+        for (int i = 0; i < listeners.length; i++) {
+            keys[i] = Subscription.lookup(listeners[i]);
+        }
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = mSnapshot.get();
+            Set<Subscription> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Subscription key : keys) {
+                Subscription registered = current.registrations.get(key);
+                if (registered != null) {
+                    removed.add(registered);
+                }
+            }
+            if (removed.isEmpty()) {
+                return;
+            }
+            next = current.apply(Collections.emptyList(), removed);
+        } while (!mSnapshot.compareAndSet(current, next));
+    }
+
+    private Subscription newSubscription(Object listener, String tag, Set<Object> keys,
+                                         boolean weak) {
+        Set<Class<?>> interfaces = getListenerInterfaces(listener.getClass());
+        return weak
+                ? Subscription.weak(listener, tag, interfaces, keys, mCollectedQueue)
+                : Subscription.strong(listener, tag, interfaces, keys);
+    }
+
+    private static boolean isSameRegistration(@Nullable Subscription old,
+                                              @NonNull Subscription subscription) {
+        return old != null && Objects.equals(old.tag, subscription.tag)
+                && old.isWeak() == subscription.isWeak()
+                && Objects.equals(old.keys, subscription.keys);
+    }
+
+    void clear() {
+        mSnapshot.set(Snapshot.EMPTY);
+        while (mCollectedQueue.poll() != null) {
+            // Drop collected references of cleared registrations
+        }
+    }
+
+    int size() {
+        return mSnapshot.get().registrations.size();
+    }
+
+    /**
+     * Get subscriptions of specific interface. The returned array belongs to an immutable
+     * snapshot and must not be modified.
+     *
+     * @param listenerClass Listener interface
+     * @param tag Specific tag name. If it is null, listeners with any tag will be returned.
+     * @return Matched subscriptions
+     */
+    @NonNull
+    Subscription[] get(@NonNull Class<?> listenerClass, @Nullable String tag) {
+        Group group = getGroup(listenerClass, tag);
+        return group != null ? group.all : EMPTY;
+    }
+
+    /**
+     * Get subscriptions of specific interface which should receive a call with key. They are
+     * listeners registered with the key and listeners registered without keys.
+     *
+     * @param listenerClass Listener interface
+     * @param tag Specific tag name. If it is null, listeners with any tag will be returned.
+     * @param key Key argument of call. If it is null, only listeners without keys match.
+     * @return Matched subscriptions
+     * @see #get(Class, String)
+     */
+    @NonNull
+    Subscription[] get(@NonNull Class<?> listenerClass, @Nullable String tag,
+                       @Nullable Object key) {
+        Group group = getGroup(listenerClass, tag);
+        return group != null ? group.get(key) : EMPTY;
+    }
+
+    @Nullable
+    private Group getGroup(@NonNull Class<?> listenerClass, @Nullable String tag) {
+        purgeCollected();
+        Subscribers subscribers = mSnapshot.get().index.get(listenerClass);
+        if (subscribers == null) {
+            return null;
+        }
+        return tag == null ? subscribers.all : subscribers.byTag.get(tag);
+    }
+
+    /**
+     * Remove subscriptions whose listeners have been collected
+     */
+    void purgeCollected() {
+        java.lang.ref.Reference<?> reference;
+        while ((reference = mCollectedQueue.poll()) != null) {
+            Subscription collected = ((Subscription.Reference) reference).subscription;
+            Snapshot current;
+            Snapshot next;
+            do {
+                current = mSnapshot.get();
+                if (current.registrations.get(collected) != collected) {
+                    break;
+                }
+                next = current.without(collected);
+            } while (!mSnapshot.compareAndSet(current, next));
+        }
+    }
+
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(
+                Collections.emptyMap(), Collections.emptyMap());
+
+        final Map<Subscription, Subscription> registrations;
+        final Map<Class<?>, Subscribers> index;
+
+        Snapshot(Map<Subscription, Subscription> registrations,
+                 Map<Class<?>, Subscribers> index) {
+            this.registrations = registrations;
+            this.index = index;
+        }
+
+        Snapshot with(Subscription subscription) {
+            Map<Subscription, Subscription> registrations = new HashMap<>(this.registrations);
+            registrations.put(subscription, subscription);
+            Map<Class<?>, Subscribers> index = new HashMap<>(this.index);
+            for (Class<?> interfaceClass : subscription.interfaces) {
+                Subscribers subscribers = index.get(interfaceClass);
+                index.put(interfaceClass, subscribers == null
+                        ? Subscribers.EMPTY.plus(subscription)
+                        : subscribers.plus(subscription));
+            }
+            return new Snapshot(registrations, index);
+        }
+
+        Snapshot without(@Nullable Subscription subscription) {
+            if (subscription == null) {
+                return this;
+            }
+            Map<Subscription, Subscription> registrations = new HashMap<>(this.registrations);
+            registrations.remove(subscription);
+            Map<Class<?>, Subscribers> index = new HashMap<>(this.index);
+            for (Class<?> interfaceClass : subscription.interfaces) {
+                Subscribers subscribers = index.get(interfaceClass);
+                if (subscribers != null) {
+                    subscribers = subscribers.minus(subscription);
+                    if (subscribers.all.all.length == 0) {
+                        index.remove(interfaceClass);
+                    } else {
+                        index.put(interfaceClass, subscribers);
+                    }
+                }
+            }
+            return new Snapshot(registrations, index);
+        }
+
+        /**
+         * Remove and add subscriptions at once. Subscribers of each affected interface are
+         * rebuilt once instead of being copied per subscription.
+         */
+        Snapshot apply(Collection<Subscription> added, Collection<Subscription> removed) {
+            Map<Subscription, Subscription> registrations = new HashMap<>(this.registrations);
+            Set<Subscription> removedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+            Set<Class<?>> affected = new LinkedHashSet<>();
+            for (Subscription subscription : removed) {
+                registrations.remove(subscription);
+                removedSet.add(subscription);
+                affected.addAll(subscription.interfaces);
+            }
+            for (Subscription subscription : added) {
+                registrations.put(subscription, subscription);
+                affected.addAll(subscription.interfaces);
+            }
+            Map<Class<?>, Subscribers> index = new HashMap<>(this.index);
+            for (Class<?> interfaceClass : affected) {
+                Subscribers subscribers = index.get(interfaceClass);
+                List<Subscription> all = new ArrayList<>();
+                if (subscribers != null) {
+                    for (Subscription subscription : subscribers.all.all) {
+                        if (!removedSet.contains(subscription)) {
+                            all.add(subscription);
+                        }
+                    }
+                }
+                for (Subscription subscription : added) {
+                    if (subscription.interfaces.contains(interfaceClass)) {
+                        all.add(subscription);
+                    }
+                }
+                if (all.isEmpty()) {
+                    index.remove(interfaceClass);
+                } else {
+                    index.put(interfaceClass, Subscribers.of(all));
+                }
+            }
+            return new Snapshot(registrations, index);
+        }
+
+    }
+
+    private static final class Subscribers {
+
+        static final Subscribers EMPTY = new Subscribers(Group.EMPTY, Collections.emptyMap());
+
+        final Group all;
+        final Map<String, Group> byTag;
+
+        Subscribers(Group all, Map<String, Group> byTag) {
+            this.all = all;
+            this.byTag = byTag;
+        }
+
+        static Subscribers of(List<Subscription> all) {
+            Map<String, List<Subscription>> tagged = new HashMap<>();
+            for (Subscription subscription : all) {
+                if (subscription.tag != null) {
+                    List<Subscription> list = tagged.get(subscription.tag);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        tagged.put(subscription.tag, list);
+                    }
+                    list.add(subscription);
+                }
+            }
+            Map<String, Group> byTag = new HashMap<>(tagged.size());
+            for (Map.Entry<String, List<Subscription>> entry : tagged.entrySet()) {
+                byTag.put(entry.getKey(), Group.of(entry.getValue()));
+            }
+            return new Subscribers(Group.of(all), byTag);
+        }
+
+        Subscribers plus(Subscription subscription) {
+            Map<String, Group> byTag = this.byTag;
+            String tag = subscription.tag;
+            if (tag != null) {
+                byTag = new HashMap<>(byTag);
+                Group tagged = byTag.get(tag);
+                byTag.put(tag, (tagged != null ? tagged : Group.EMPTY).plus(subscription));
+            }
+            return new Subscribers(all.plus(subscription), byTag);
+        }
+
+        Subscribers minus(Subscription subscription) {
+            Map<String, Group> byTag = this.byTag;
+            String tag = subscription.tag;
+            if (tag != null && byTag.containsKey(tag)) {
+                byTag = new HashMap<>(byTag);
+                Group tagged = byTag.get(tag).minus(subscription);
+                if (tagged.all.length == 0) {
+                    byTag.remove(tag);
+                } else {
+                    byTag.put(tag, tagged);
+                }
+            }
+            return new Subscribers(all.minus(subscription), byTag);
+        }
+
+    }
+
+    /**
+     * Subscriptions of an interface with the same tag (or any tag)
+     */
+    private static final class Group {
+
+        static final Group EMPTY = new Group(
+                ListenerRegistry.EMPTY, ListenerRegistry.EMPTY, Collections.emptyMap());
+
+        final Subscription[] all;
+        // Subscriptions registered without keys
+        final Subscription[] unkeyed;
+        // Subscriptions registered with each key, merged with unkeyed ones
+        final Map<Object, Subscription[]> byKey;
+
+        Group(Subscription[] all, Subscription[] unkeyed, Map<Object, Subscription[]> byKey) {
+            this.all = all;
+            this.unkeyed = unkeyed;
+            this.byKey = byKey;
+        }
+
+        /**
+         * Build a group of subscriptions in order. Subscriptions of each key keep the same
+         * order as {@link #plus(Subscription)} one by one would produce.
+         */
+        static Group of(List<Subscription> all) {
+            List<Subscription> unkeyed = new ArrayList<>();
+            Map<Object, List<Subscription>> keyed = new HashMap<>();
+            for (Subscription subscription : all) {
+                if (subscription.keys == null) {
+                    unkeyed.add(subscription);
+                    for (List<Subscription> list : keyed.values()) {
+                        list.add(subscription);
+                    }
+                } else {
+                    for (Object key : subscription.keys) {
+                        List<Subscription> list = keyed.get(key);
+                        if (list == null) {
+                            list = new ArrayList<>(unkeyed);
+                            keyed.put(key, list);
+                        }
+                        list.add(subscription);
+                    }
+                }
+            }
+            Map<Object, Subscription[]> byKey = new HashMap<>(keyed.size());
+            for (Map.Entry<Object, List<Subscription>> entry : keyed.entrySet()) {
+                byKey.put(entry.getKey(), entry.getValue().toArray(ListenerRegistry.EMPTY));
+            }
+            return new Group(all.toArray(ListenerRegistry.EMPTY),
+                    unkeyed.toArray(ListenerRegistry.EMPTY), byKey);
+        }
+
+        Subscription[] get(@Nullable Object key) {
+            if (key == null) {
+                return unkeyed;
+            }
+            Subscription[] keyed = byKey.get(key);
+            return keyed != null ? keyed : unkeyed;
+        }
+
+        Group plus(Subscription subscription) {
+            Subscription[] all = append(this.all, subscription);
+            if (subscription.keys == null) {
+                Map<Object, Subscription[]> byKey = this.byKey;
+                if (!byKey.isEmpty()) {
+                    byKey = new HashMap<>(byKey);
+                    for (Map.Entry<Object, Subscription[]> entry : byKey.entrySet()) {
+                        entry.setValue(append(entry.getValue(), subscription));
+                    }
+                }
+                return new Group(all, append(unkeyed, subscription), byKey);
+            }
+            Map<Object, Subscription[]> byKey = new HashMap<>(this.byKey);
+            for (Object key : subscription.keys) {
+                Subscription[] keyed = byKey.get(key);
+                byKey.put(key, append(keyed != null ? keyed : unkeyed, subscription));
+            }
+            return new Group(all, unkeyed, byKey);
+        }
+
+        Group minus(Subscription subscription) {
+            Subscription[] all = remove(this.all, subscription);
+            if (subscription.keys == null) {
+                Map<Object, Subscription[]> byKey = this.byKey;
+                if (!byKey.isEmpty()) {
+                    byKey = new HashMap<>(byKey);
+                    for (Map.Entry<Object, Subscription[]> entry : byKey.entrySet()) {
+                        entry.setValue(remove(entry.getValue(), subscription));
+                    }
+                }
+                return new Group(all, remove(unkeyed, subscription), byKey);
+            }
+            Map<Object, Subscription[]> byKey = new HashMap<>(this.byKey);
+            for (Object key : subscription.keys) {
+                Subscription[] keyed = byKey.get(key);
+                if (keyed == null) {
+                    continue;
+                }
+                keyed = remove(keyed, subscription);
+                // Drop the key once only unkeyed subscriptions are left
+                if (keyed.length == unkeyed.length) {
+                    byKey.remove(key);
+                } else {
+                    byKey.put(key, keyed);
+                }
+            }
+            return new Group(all, unkeyed, byKey);
+        }
+
+        private static Subscription[] append(Subscription[] array, Subscription element) {
+            Subscription[] result = Arrays.copyOf(array, array.length + 1);
+            result[array.length] = element;
+            return result;
+        }
+
+        private static Subscription[] remove(Subscription[] array, Subscription element) {
+            for (int i = 0; i < array.length; i++) {
+                // Registered instances are unique, so compare them by identity
+                if (array[i] == element) {
+                    Subscription[] result = new Subscription[array.length - 1];
+                    System.arraycopy(array, 0, result, 0, i);
+                    System.arraycopy(array, i + 1, result, i, array.length - i - 1);
+                    return result;
+                }
+            }
+            return array;
+        }
+
+    }
+
+}
@@ -0,0 +1,74 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pending {@link EventsOnThread#SERIAL_THREAD} deliveries of a listener. At most one drain of
+ * a mailbox is submitted to executor at a time, so deliveries run one by one in FIFO order,
+ * while mailboxes of different listeners are drained in parallel.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ */
+final class SerialMailbox implements Runnable {
+
+    /**
+     * Maximum count of deliveries run by one drain. Remaining deliveries are drained by
+     * a new task, so a busy listener doesn't occupy a worker forever.
+     */
+    private static final int MAX_DRAIN_COUNT = 64;
+
+    private final ConcurrentLinkedQueue<Runnable> mQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mSize = new AtomicInteger();
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    private volatile Executor mExecutor;
+
+    int size() {
+        return mSize.get();
+    }
+
+    void enqueue(@NonNull Runnable runnable, @NonNull Executor executor) {
+        mExecutor = executor;
+        mQueue.offer(runnable);
+        mSize.incrementAndGet();
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (!mScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            mExecutor.execute(this);
+        } catch (RejectedExecutionException e) {
+            mScheduled.set(false);
+            throw e;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            Runnable runnable;
+            int count = 0;
+            while (count < MAX_DRAIN_COUNT && (runnable = mQueue.poll()) != null) {
+                mSize.decrementAndGet();
+                count++;
+                runnable.run();
+            }
+        } finally {
+            // Release the mailbox after draining, so the next drain can't overlap this one
+            mScheduled.set(false);
+            if (!mQueue.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Latest calls of methods annotated with {@link Sticky}, one per interface, method and tag.
+ * Calls are kept in update order, and the least recently updated ones are evicted when the
+ * cache exceeds its maximum size.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ */
+final class StickyCache {
+
+    // Calls are keys of themselves, compared by interface, method and tag
+    private final Map<Call, Call> mCalls = new LinkedHashMap<>();
+    private int mMaxSize;
+
+    // Read without lock so empty cache can be checked cheaply
+    private volatile int mSize;
+
+    StickyCache(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    synchronized void setMaxSize(int maxSize) {
+        mMaxSize = maxSize;
+        trim();
+    }
+
+    synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    synchronized void put(@NonNull Call call) {
+        if (mMaxSize == 0) {
+            return;
+        }
+        // Remove first so updated call moves to the end
+        mCalls.remove(call);
+        mCalls.put(call, call);
+        trim();
+    }
+
+    synchronized void clear() {
+        mCalls.clear();
+        mSize = 0;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Check whether a newer call of the same interface, method and tag has been kept
+     * after call
+     */
+    synchronized boolean isReplaced(@NonNull Call call) {
+        Call latest = mCalls.get(call);
+        return latest != null && latest != call;
+    }
+
+    /**
+     * Get kept calls which should be delivered to subscription, in update order
+     */
+    @NonNull
+    synchronized List<Call> get(@NonNull Subscription subscription) {
+        List<Call> result = null;
+        for (Call call : mCalls.values()) {
+            if (subscription.interfaces.contains(call.listenerClass)
+                    && (call.tag == null || call.tag.equals(subscription.tag))) {
+                if (result == null) {
+                    result = new ArrayList<>();
+                }
+                result.add(call);
+            }
+        }
+        return result != null ? result : Collections.emptyList();
+    }
+
+    private void trim() {
+        Iterator<Call> iterator = mCalls.keySet().iterator();
+        while (mCalls.size() > mMaxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        mSize = mCalls.size();
+    }
+
+    /**
+     * Latest call of a sticky method published by helpers with a tag
+     */
+    static final class Call {
+
+        final Class<?> listenerClass;
+        // Name and parameter types, so overloaded methods are kept separately
+        final String signature;
+        final String methodName;
+        @Nullable
+        final String tag;
+        @EventsOnThread.ThreadType
+        final int threadType;
+        final Invocation<?> invocation;
+
+        Call(@NonNull Class<?> listenerClass, @NonNull String signature, @Nullable String tag,
+             @EventsOnThread.ThreadType int threadType, @NonNull Invocation<?> invocation) {
+            this.listenerClass = listenerClass;
+            this.signature = signature;
+            this.methodName = signature.substring(0, signature.indexOf('('));
+            this.tag = tag;
+            this.threadType = threadType;
+            this.invocation = invocation;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Call)) {
+                return false;
+            }
+            Call other = (Call) obj;
+            return listenerClass == other.listenerClass && signature.equals(other.signature)
+                    && Objects.equals(tag, other.tag);
+        }
+
+        @Override
+        public int hashCode() {
+            return (listenerClass.hashCode() * 31 + signature.hashCode()) * 31
+                    + Objects.hashCode(tag);
+        }
+
+    }
+
+}
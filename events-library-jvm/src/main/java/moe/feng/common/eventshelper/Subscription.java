@@ -0,0 +1,165 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A registered listener. Generated helpers iterate subscriptions and call {@link #get()} to
+ * obtain the listener, which returns null once a weakly registered listener has been collected.
+ *
+ * Subscriptions are equal if they hold equal listeners, so a subscription created for lookup
+ * can be used to find the registered one.
+ *
+ * @author Fung Gwo (fythonx@gmail.com)
+ */
+final class Subscription {
+
+    final String tag;
+    final Set<Class<?>> interfaces;
+    // Keys of calls routed to this listener, or null to receive calls with any key
+    final Set<Object> keys;
+
+    private final Object mListener;
+    private final Reference mReference;
+    private final int mHash;
+
+    private volatile SerialMailbox mMailbox;
+    private volatile ConcurrentMap<BoundedQueue.Spec, BoundedQueue> mBoundedQueues;
+
+    private Subscription(@NonNull Object listener, @Nullable String tag,
+                         @Nullable Set<Class<?>> interfaces, @Nullable Set<Object> keys,
+                         @Nullable ReferenceQueue<Object> queue) {
+        this.tag = tag;
+        this.interfaces = interfaces;
+        this.keys = keys;
+        mHash = listener.hashCode();
+        if (queue != null) {
+            mListener = null;
+            mReference = new Reference(listener, queue, this);
+        } else {
+            mListener = listener;
+            mReference = null;
+        }
+    }
+
+    @NonNull
+    static Subscription strong(@NonNull Object listener, @Nullable String tag,
+                               @NonNull Set<Class<?>> interfaces, @Nullable Set<Object> keys) {
+        return new Subscription(listener, tag, interfaces, keys, null);
+    }
+
+    @NonNull
+    static Subscription weak(@NonNull Object listener, @Nullable String tag,
+                             @NonNull Set<Class<?>> interfaces, @Nullable Set<Object> keys,
+                             @NonNull ReferenceQueue<Object> queue) {
+        return new Subscription(listener, tag, interfaces, keys, queue);
+    }
+
+    /**
+     * Create a subscription used to look up the registered one of listener
+     */
+    @NonNull
+    static Subscription lookup(@NonNull Object listener) {
+        return new Subscription(listener, null, null, null, null);
+    }
+
+    /**
+     * Get listener of this subscription
+     *
+     * @return Listener, or null if it is weakly registered and has been collected
+     */
+    @Nullable
+    Object get() {
+        return mReference == null ? mListener : mReference.get();
+    }
+
+    /**
+     * Get mailbox of {@link EventsOnThread#SERIAL_THREAD} deliveries to this listener
+     *
+     * @return Mailbox, which is created at first call
+     */
+    @NonNull
+    SerialMailbox getMailbox() {
+        SerialMailbox mailbox = mMailbox;
+        if (mailbox == null) {
+            synchronized (this) {
+                mailbox = mMailbox;
+                if (mailbox == null) {
+                    mailbox = new SerialMailbox();
+                    mMailbox = mailbox;
+                }
+            }
+        }
+        return mailbox;
+    }
+
+    /**
+     * Get bounded queue of deliveries of a method annotated with {@link EventsQueue}
+     *
+     * @param spec Spec of method
+     * @return Queue, which is created at first call
+     */
+    @NonNull
+    BoundedQueue getBoundedQueue(@NonNull BoundedQueue.Spec spec) {
+        ConcurrentMap<BoundedQueue.Spec, BoundedQueue> queues = mBoundedQueues;
+        if (queues == null) {
+            synchronized (this) {
+                queues = mBoundedQueues;
+                if (queues == null) {
+                    queues = new ConcurrentHashMap<>();
+                    mBoundedQueues = queues;
+                }
+            }
+        }
+        BoundedQueue queue = queues.get(spec);
+        if (queue == null) {
+            queue = new BoundedQueue(spec);
+            BoundedQueue previous = queues.putIfAbsent(spec, queue);
+            if (previous != null) {
+                queue = previous;
+            }
+        }
+        return queue;
+    }
+
+    boolean isWeak() {
+        return mReference != null;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Subscription)) {
+            return false;
+        }
+        Subscription other = (Subscription) obj;
+        Object listener = get();
+        return mHash == other.mHash && listener != null && Objects.equals(listener, other.get());
+    }
+
+    @Override
+    public int hashCode() {
+        return mHash;
+    }
+
+    static final class Reference extends WeakReference<Object> {
+
+        final Subscription subscription;
+
+        Reference(Object referent, ReferenceQueue<Object> queue, Subscription subscription) {
+            super(referent, queue);
+            this.subscription = subscription;
+        }
+
+    }
+
+}
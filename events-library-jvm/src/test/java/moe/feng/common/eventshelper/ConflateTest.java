@@ -0,0 +1,75 @@
+package moe.feng.common.eventshelper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConflateTest {
+
+    @EventsListener
+    public interface ProgressListener {
+        @Conflate
+        @EventsOnThread(EventsOnThread.NEW_THREAD)
+        void onProgress(int progress);
+    }
+
+    @Test
+    public void onlyLatestPendingCallIsDelivered() {
+        List<Runnable> scheduled = new ArrayList<>();
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(scheduled::add);
+        List<Integer> received = new ArrayList<>();
+        eventsBus.registerListener((ProgressListener) received::add);
+        ProgressListener helper =
+                new Helper$$moe_feng_common_eventshelper_ConflateTest_ProgressListener(
+                        null, eventsBus);
+
+        for (int i = 0; i <= 100; i++) {
+            helper.onProgress(i);
+        }
+        assertEquals(1, scheduled.size());
+        runAll(scheduled);
+        assertEquals(1, received.size());
+        assertEquals(100, (int) received.get(0));
+
+        helper.onProgress(101);
+        assertEquals(1, scheduled.size());
+        runAll(scheduled);
+        assertEquals(101, (int) received.get(1));
+    }
+
+    @Test
+    public void eachListenerGetsItsOwnDelivery() {
+        List<Runnable> scheduled = new ArrayList<>();
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(scheduled::add);
+        List<Integer> first = new ArrayList<>();
+        List<Integer> second = new ArrayList<>();
+        eventsBus.registerListener((ProgressListener) first::add);
+        eventsBus.registerListener((ProgressListener) second::add);
+        ProgressListener helper =
+                new Helper$$moe_feng_common_eventshelper_ConflateTest_ProgressListener(
+                        null, eventsBus);
+
+        helper.onProgress(1);
+        helper.onProgress(2);
+        scheduled.remove(0).run();
+        // Slot schedules a delivery for each listener, which may run in parallel
+        assertEquals(2, scheduled.size());
+        scheduled.remove(1).run();
+        assertTrue(first.isEmpty());
+        assertEquals(2, (int) second.get(0));
+        scheduled.remove(0).run();
+        assertEquals(2, (int) first.get(0));
+    }
+
+    private static void runAll(List<Runnable> scheduled) {
+        while (!scheduled.isEmpty()) {
+            scheduled.remove(0).run();
+        }
+    }
+
+}
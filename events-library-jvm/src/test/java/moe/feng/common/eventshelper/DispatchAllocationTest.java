@@ -0,0 +1,122 @@
+package moe.feng.common.eventshelper;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class DispatchAllocationTest {
+
+    @EventsListener
+    public interface SensorListener {
+        void onSensorChanged(float x, float y, float z);
+    }
+
+    static class CountingSensorListener implements SensorListener {
+
+        int count;
+
+        @Override
+        public void onSensorChanged(float x, float y, float z) {
+            count++;
+        }
+
+    }
+
+    @EventsListener
+    public interface AsyncSensorListener {
+        @EventsOnThread(EventsOnThread.NEW_THREAD)
+        void onSensorChanged(float x, float y, float z);
+    }
+
+    static class CountingAsyncSensorListener implements AsyncSensorListener {
+
+        int count;
+
+        @Override
+        public void onSensorChanged(float x, float y, float z) {
+            count++;
+        }
+
+    }
+
+    private com.sun.management.ThreadMXBean mThreadBean;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean);
+        mThreadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mThreadBean.isThreadAllocatedMemorySupported());
+        mThreadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private long measureAllocatedBytes(Runnable runnable) {
+        for (int i = 0; i < 20_000; i++) {
+            runnable.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = mThreadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            runnable.run();
+        }
+        return mThreadBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    @Test
+    public void currentThreadDispatchDoesNotAllocate() {
+        EventsBus eventsBus = new EventsBus();
+        CountingSensorListener[] listeners = new CountingSensorListener[10];
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i] = new CountingSensorListener();
+            eventsBus.registerListener(listeners[i]);
+        }
+        SensorListener helper =
+                new Helper$$moe_feng_common_eventshelper_DispatchAllocationTest_SensorListener(
+                        null, eventsBus);
+
+        long allocated = measureAllocatedBytes(() -> helper.onSensorChanged(1f, 2f, 3f));
+
+        assertEquals(120_000, listeners[0].count);
+        // Leave some room for the measurement itself
+        assertTrue("Dispatch allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void monitoringAsyncDispatchDoesNotAllocate() {
+        EventsBus eventsBus = new EventsBus();
+        // Run deliveries on publisher, so their allocations are measured too
+        eventsBus.setNewThreadExecutor(Runnable::run);
+        CountingAsyncSensorListener listener = new CountingAsyncSensorListener();
+        eventsBus.registerListener(listener);
+        AsyncSensorListener helper = eventsBus.of(AsyncSensorListener.class);
+
+        long unmonitored = measureAllocatedBytes(() -> helper.onSensorChanged(1f, 2f, 3f));
+        eventsBus.setTracer(new EventsTracer());
+        long monitored = measureAllocatedBytes(() -> helper.onSensorChanged(1f, 2f, 3f));
+
+        assertEquals(240_000, listener.count);
+        // Each delivery allocates its runnable, but monitoring doesn't wrap it
+        assertTrue("Monitoring allocated " + (monitored - unmonitored) + " more bytes",
+                monitored - unmonitored < 1024);
+    }
+
+    @Test
+    public void cachedHelperLookupDoesNotAllocate() {
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.registerListener(new CountingSensorListener(), "A");
+
+        long allocated = measureAllocatedBytes(() -> {
+            eventsBus.of(SensorListener.class).onSensorChanged(1f, 2f, 3f);
+            eventsBus.of(SensorListener.class, "A").onSensorChanged(1f, 2f, 3f);
+        });
+
+        assertSame(eventsBus.of(SensorListener.class, "A"),
+                eventsBus.of(SensorListener.class, "A"));
+        assertTrue("Lookup allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+}
@@ -0,0 +1,179 @@
+package moe.feng.common.eventshelper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EventsBatchTest {
+
+    @EventsListener
+    public interface SyncListener {
+
+        void onItem(int id);
+
+        @EventsOnThread(EventsOnThread.NEW_THREAD)
+        void onAsyncItem(int id);
+
+        void onChatItem(@EventsKey String chatId, int id);
+
+    }
+
+    static class RecordingListener implements SyncListener {
+
+        final List<String> received = new ArrayList<>();
+
+        @Override
+        public void onItem(int id) {
+            received.add("item:" + id);
+        }
+
+        @Override
+        public void onAsyncItem(int id) {
+            received.add("async:" + id);
+        }
+
+        @Override
+        public void onChatItem(String chatId, int id) {
+            received.add(chatId + ":" + id);
+        }
+
+    }
+
+    @Test
+    public void deliversRecordedCallsInOrder() {
+        EventsBus eventsBus = new EventsBus();
+        List<Runnable> scheduled = new ArrayList<>();
+        eventsBus.setNewThreadExecutor(scheduled::add);
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        eventsBus.registerListener(first);
+        eventsBus.registerListener(second);
+
+        EventsBatch<SyncListener> batch = eventsBus.newBatch(SyncListener.class);
+        SyncListener recorder = batch.recorder();
+        for (int i = 0; i < 100; i++) {
+            recorder.onItem(i);
+            recorder.onAsyncItem(i);
+        }
+        assertEquals(200, batch.size());
+        assertTrue(first.received.isEmpty());
+
+        batch.publish();
+
+        assertEquals(0, batch.size());
+        // One task per listener for all asynchronous calls
+        assertEquals(2, scheduled.size());
+        assertEquals(100, first.received.size());
+        for (Runnable runnable : scheduled) {
+            runnable.run();
+        }
+        for (RecordingListener listener : new RecordingListener[] { first, second }) {
+            assertEquals(200, listener.received.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals("item:" + i, listener.received.get(i));
+                assertEquals("async:" + i, listener.received.get(100 + i));
+            }
+        }
+    }
+
+    @Test
+    public void routesKeyedCalls() {
+        EventsBus eventsBus = new EventsBus();
+        RecordingListener all = new RecordingListener();
+        RecordingListener chatA = new RecordingListener();
+        eventsBus.registerListener(all);
+        eventsBus.registerListener(chatA, null, "A");
+
+        EventsBatch<SyncListener> batch = eventsBus.newBatch(SyncListener.class);
+        SyncListener recorder = batch.recorder();
+        recorder.onChatItem("A", 1);
+        recorder.onChatItem("B", 2);
+        recorder.onItem(3);
+        recorder.onChatItem("A", 4);
+        batch.publish();
+
+        assertEquals(4, all.received.size());
+        assertEquals(3, chatA.received.size());
+        assertEquals("A:1", chatA.received.get(0));
+        assertEquals("item:3", chatA.received.get(1));
+        assertEquals("A:4", chatA.received.get(2));
+    }
+
+    @Test
+    public void publishParallelCompletesAfterAllListeners() throws Exception {
+        EventsBus eventsBus = new EventsBus();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        eventsBus.setParallelExecutor(pool);
+        try {
+            // Both listeners wait for each other, which needs them to run concurrently
+            CountDownLatch started = new CountDownLatch(2);
+            List<List<Integer>> receivedLists = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                List<Integer> received = new ArrayList<>();
+                receivedLists.add(received);
+                eventsBus.registerListener(new SyncListener() {
+                    @Override
+                    public void onItem(int id) {
+                        if (id == 0) {
+                            started.countDown();
+                            try {
+                                started.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        received.add(id);
+                    }
+
+                    @Override
+                    public void onAsyncItem(int id) {}
+
+                    @Override
+                    public void onChatItem(String chatId, int id) {}
+                });
+            }
+            eventsBus.registerListener(new SyncListener() {
+                @Override
+                public void onItem(int id) {
+                    if (id == 5) {
+                        throw new IllegalStateException("Failed at " + id);
+                    }
+                }
+
+                @Override
+                public void onAsyncItem(int id) {}
+
+                @Override
+                public void onChatItem(String chatId, int id) {}
+            });
+
+            EventsBatch<SyncListener> batch = eventsBus.newBatch(SyncListener.class);
+            SyncListener recorder = batch.recorder();
+            for (int i = 0; i < 10; i++) {
+                recorder.onItem(i);
+            }
+            EventsCompletion completion = batch.publishParallel();
+
+            assertTrue(completion.await(5, TimeUnit.SECONDS));
+            assertTrue(completion.isDone());
+            assertEquals(1, completion.getErrors().size());
+            assertTrue(completion.getErrors().get(0) instanceof IllegalStateException);
+            for (List<Integer> received : receivedLists) {
+                assertEquals(10, received.size());
+                for (int i = 0; i < 10; i++) {
+                    assertEquals(i, (int) received.get(i));
+                }
+            }
+            assertTrue(batch.publishParallel().isDone());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,295 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class EventsBusTest {
+
+    @EventsListener
+    public interface MessageListener {
+
+        @EventsOnThread(EventsOnThread.MAIN_THREAD)
+        void onMainMessage(String message);
+
+        @EventsOnThread(EventsOnThread.NEW_THREAD)
+        void onAsyncMessage(String message);
+
+    }
+
+    @Test
+    public void mainThreadCallsRunOnScheduler() throws Exception {
+        ExecutorService mainExecutor = Executors.newSingleThreadExecutor();
+        try {
+            EventsBus eventsBus = new EventsBus(EventsExecutors.asScheduler(mainExecutor));
+            Thread mainThread = mainExecutor.submit(Thread::currentThread).get();
+            List<String> received = new ArrayList<>();
+            AtomicReference<Thread> calledThread = new AtomicReference<>();
+            CountDownLatch latch = new CountDownLatch(2);
+            eventsBus.registerListener(new MessageListener() {
+                @Override
+                public void onMainMessage(String message) {
+                    calledThread.set(Thread.currentThread());
+                    received.add(message);
+                    latch.countDown();
+                }
+
+                @Override
+                public void onAsyncMessage(String message) {}
+            });
+
+            MessageListener helper = eventsBus.of(MessageListener.class);
+            helper.onMainMessage("a");
+            helper.onMainMessage("b");
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertSame(mainThread, calledThread.get());
+            assertEquals(2, received.size());
+            assertEquals("a", received.get(0));
+            assertEquals("b", received.get(1));
+        } finally {
+            mainExecutor.shutdown();
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void mainThreadCallsRequireScheduler() {
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.registerListener(new MessageListener() {
+            @Override
+            public void onMainMessage(String message) {}
+
+            @Override
+            public void onAsyncMessage(String message) {}
+        });
+        eventsBus.of(MessageListener.class).onMainMessage("a");
+    }
+
+    @Test
+    public void immediateMainDeliveryRunsOnMainThreadOnly() throws Exception {
+        // Scheduler whose main thread is the test thread
+        Thread mainThread = Thread.currentThread();
+        List<Runnable> pending = new ArrayList<>();
+        EventsBus eventsBus = new EventsBus(new EventsScheduler() {
+            @Override
+            public void schedule(@NonNull Runnable runnable) {
+                pending.add(runnable);
+            }
+
+            @Override
+            public int getQueueDepth() {
+                return pending.size();
+            }
+
+            @Override
+            public boolean isCurrentThread() {
+                return Thread.currentThread() == mainThread;
+            }
+        });
+        BaseMessageListener listener = new BaseMessageListener() {
+            @Override
+            public void onMainMessage(String message) {
+                received.add(message);
+            }
+        };
+        eventsBus.registerListener(listener);
+        MessageListener helper = eventsBus.of(MessageListener.class);
+
+        helper.onMainMessage("scheduled");
+        assertEquals(1, pending.size());
+        assertTrue(listener.received.isEmpty());
+
+        eventsBus.setImmediateMainDelivery(true);
+        // Earlier calls are pending, so this one waits behind them
+        helper.onMainMessage("queued");
+        assertEquals(2, pending.size());
+        for (Runnable runnable : pending) {
+            runnable.run();
+        }
+        pending.clear();
+
+        helper.onMainMessage("immediate");
+        assertTrue(pending.isEmpty());
+        Thread publisher = new Thread(() -> helper.onMainMessage("other thread"));
+        publisher.start();
+        publisher.join();
+        assertEquals(1, pending.size());
+        assertEquals(3, listener.received.size());
+        assertEquals("scheduled", listener.received.get(0));
+        assertEquals("queued", listener.received.get(1));
+        assertEquals("immediate", listener.received.get(2));
+    }
+
+    @Test
+    public void busesAreIsolated() {
+        EventsBus first = new EventsBus();
+        EventsBus second = new EventsBus();
+        first.setNewThreadExecutor(Runnable::run);
+        List<String> firstReceived = new ArrayList<>();
+        List<String> secondReceived = new ArrayList<>();
+        first.registerListener(new MessageListener() {
+            @Override
+            public void onMainMessage(String message) {}
+
+            @Override
+            public void onAsyncMessage(String message) {
+                firstReceived.add(message);
+            }
+        });
+        second.registerListener(new MessageListener() {
+            @Override
+            public void onMainMessage(String message) {}
+
+            @Override
+            public void onAsyncMessage(String message) {
+                secondReceived.add(message);
+            }
+        });
+
+        first.of(MessageListener.class).onAsyncMessage("a");
+
+        assertEquals(1, firstReceived.size());
+        assertTrue(secondReceived.isEmpty());
+        assertNotSame(first.of(MessageListener.class), second.of(MessageListener.class));
+        assertNotSame(first.getNewThreadExecutor(), second.getNewThreadExecutor());
+
+        first.clearAllListeners();
+        assertEquals(0, first.getSubscriptions(MessageListener.class, null).length);
+        assertEquals(1, second.getSubscriptions(MessageListener.class, null).length);
+    }
+
+    static class BaseMessageListener implements MessageListener {
+
+        final List<String> received = new ArrayList<>();
+
+        @Override
+        public void onMainMessage(String message) {}
+
+        @Override
+        public void onAsyncMessage(String message) {
+            received.add(message);
+        }
+
+    }
+
+    static class InheritedMessageListener extends BaseMessageListener {}
+
+    @Test
+    public void registersListenersInheritingInterfaces() {
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(Runnable::run);
+        InheritedMessageListener first = new InheritedMessageListener();
+        InheritedMessageListener second = new InheritedMessageListener();
+        eventsBus.registerListeners(first, second);
+
+        eventsBus.of(MessageListener.class).onAsyncMessage("a");
+
+        assertEquals(1, first.received.size());
+        assertEquals(1, second.received.size());
+        eventsBus.unregisterListeners(first, second);
+        assertEquals(0, eventsBus.getSubscriptions(MessageListener.class, null).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bulkRegistrationValidatesAllListeners() {
+        EventsBus eventsBus = new EventsBus();
+        try {
+            eventsBus.registerListeners(new InheritedMessageListener(), new Object());
+        } finally {
+            // Nothing is registered if any listener is invalid
+            assertEquals(0, eventsBus.getSubscriptions(MessageListener.class, null).length);
+        }
+    }
+
+    @Test
+    public void newThreadCallsNeverRunOnPublisher() throws Exception {
+        EventsBus eventsBus = new EventsBus();
+        Thread publisher = Thread.currentThread();
+        int callCount = 2000;
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(callCount);
+        AtomicReference<Thread> calledOnPublisher = new AtomicReference<>();
+        eventsBus.registerListener(new MessageListener() {
+            @Override
+            public void onMainMessage(String message) {}
+
+            @Override
+            public void onAsyncMessage(String message) {
+                if (Thread.currentThread() == publisher) {
+                    calledOnPublisher.set(publisher);
+                }
+                try {
+                    // Keep all workers busy while calls pile up
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        });
+
+        MessageListener helper = eventsBus.of(MessageListener.class);
+        for (int i = 0; i < callCount; i++) {
+            helper.onAsyncMessage("a");
+        }
+        release.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNull(calledOnPublisher.get());
+    }
+
+    @Test
+    public void newThreadCallsRunOnVirtualThreadsIfSupported() throws Exception {
+        if (!EventsExecutors.isVirtualThreadSupported()) {
+            try {
+                EventsExecutors.newVirtualThreadExecutor();
+                fail("Virtual thread executor should be unsupported.");
+            } catch (UnsupportedOperationException expected) {
+                // Runtime before Java 21
+            }
+            return;
+        }
+        ExecutorService executor = EventsExecutors.newVirtualThreadExecutor();
+        try {
+            EventsBus eventsBus = new EventsBus();
+            eventsBus.setNewThreadExecutor(executor);
+            int listenerCount = 1000;
+            // All listeners block until every delivery has started, which needs
+            // as many concurrent threads as listeners.
+            CountDownLatch started = new CountDownLatch(listenerCount);
+            for (int i = 0; i < listenerCount; i++) {
+                eventsBus.registerListener(new MessageListener() {
+                    @Override
+                    public void onMainMessage(String message) {}
+
+                    @Override
+                    public void onAsyncMessage(String message) {
+                        started.countDown();
+                        try {
+                            started.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+
+            eventsBus.of(MessageListener.class).onAsyncMessage("a");
+
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
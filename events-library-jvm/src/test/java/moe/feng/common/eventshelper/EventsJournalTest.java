@@ -0,0 +1,166 @@
+package moe.feng.common.eventshelper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventsJournalTest {
+
+    @EventsListener
+    public interface JournalListener {
+
+        void onValues(int i, long l, boolean z, double d, char c, String s);
+
+        void onMessage(String message);
+
+        void onObject(Object value);
+
+        void onReset();
+
+    }
+
+    static class RecordingListener implements JournalListener {
+
+        final List<String> received = new ArrayList<>();
+
+        @Override
+        public void onValues(int i, long l, boolean z, double d, char c, String s) {
+            received.add(i + "," + l + "," + z + "," + d + "," + c + "," + s);
+        }
+
+        @Override
+        public void onMessage(String message) {
+            received.add(message);
+        }
+
+        @Override
+        public void onObject(Object value) {
+            received.add("object");
+        }
+
+        @Override
+        public void onReset() {
+            received.add("reset");
+        }
+
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysRecordedCalls() throws Exception {
+        File directory = folder.newFolder();
+        EventsBus recordingBus = new EventsBus();
+        EventsJournal journal = new EventsJournal(directory, 4096);
+        recordingBus.setJournal(journal);
+
+        JournalListener helper = recordingBus.of(JournalListener.class, "values");
+        JournalListener taggedHelper = recordingBus.of(JournalListener.class, "tagged");
+        // Enough calls to fill several segments
+        for (int i = 0; i < 500; i++) {
+            helper.onValues(i, -i * 1000L, i % 2 == 0, i / 4.0, (char) ('a' + i % 26),
+                    i % 10 == 0 ? null : "value-" + i);
+            taggedHelper.onMessage("message-" + i);
+        }
+        taggedHelper.onReset();
+        // Objects can't be encoded, so the call isn't journaled
+        helper.onObject(new Object());
+        journal.close();
+        assertTrue(EventsJournal.listSegments(directory).length > 1);
+
+        EventsBus replayingBus = new EventsBus();
+        RecordingListener values = new RecordingListener();
+        RecordingListener tagged = new RecordingListener();
+        replayingBus.registerListener(values, "values");
+        replayingBus.registerListener(tagged, "tagged");
+
+        int count = new EventsReplayer(replayingBus).replay(directory, false);
+
+        assertEquals(1001, count);
+        assertEquals(500, values.received.size());
+        assertEquals(501, tagged.received.size());
+        assertEquals("reset", tagged.received.get(500));
+        for (int i = 0; i < 500; i++) {
+            String expected = i + "," + (-i * 1000L) + "," + (i % 2 == 0) + "," + (i / 4.0)
+                    + "," + (char) ('a' + i % 26) + "," + (i % 10 == 0 ? null : "value-" + i);
+            assertEquals(expected, values.received.get(i));
+            assertEquals("message-" + i, tagged.received.get(i));
+        }
+    }
+
+    @Test
+    public void replaysAtRecordedSpeed() throws Exception {
+        File directory = folder.newFolder();
+        EventsBus recordingBus = new EventsBus();
+        try (EventsJournal journal = new EventsJournal(directory)) {
+            recordingBus.setJournal(journal);
+            JournalListener helper = recordingBus.of(JournalListener.class);
+            helper.onMessage("first");
+            Thread.sleep(100);
+            helper.onMessage("second");
+        }
+
+        EventsBus replayingBus = new EventsBus();
+        replayingBus.registerListener(new RecordingListener());
+        EventsReplayer replayer = new EventsReplayer(replayingBus);
+
+        long startTime = System.nanoTime();
+        assertEquals(2, replayer.replay(directory, true));
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000L;
+        assertTrue("Replay took " + elapsedMillis + "ms", elapsedMillis >= 90);
+    }
+
+    @Test
+    public void skipsGapsBetweenJournals() throws Exception {
+        File directory = folder.newFolder();
+        EventsBus recordingBus = new EventsBus();
+        for (int i = 0; i < 2; i++) {
+            if (i > 0) {
+                Thread.sleep(500);
+            }
+            try (EventsJournal journal = new EventsJournal(directory)) {
+                recordingBus.setJournal(journal);
+                recordingBus.of(JournalListener.class).onMessage("session-" + i);
+            }
+        }
+
+        EventsBus replayingBus = new EventsBus();
+        replayingBus.registerListener(new RecordingListener());
+        EventsReplayer replayer = new EventsReplayer(replayingBus);
+
+        long startTime = System.nanoTime();
+        assertEquals(2, replayer.replay(directory, true));
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000L;
+        assertTrue("Replay took " + elapsedMillis + "ms", elapsedMillis < 400);
+    }
+
+    @Test
+    public void appendsSegmentsAfterExistingOnes() throws Exception {
+        File directory = folder.newFolder();
+        EventsBus eventsBus = new EventsBus();
+        for (int i = 0; i < 2; i++) {
+            try (EventsJournal journal = new EventsJournal(directory)) {
+                eventsBus.setJournal(journal);
+                eventsBus.of(JournalListener.class).onMessage("session-" + i);
+            }
+        }
+        eventsBus.setJournal(null);
+        assertEquals(2, EventsJournal.listSegments(directory).length);
+
+        RecordingListener listener = new RecordingListener();
+        eventsBus.registerListener(listener);
+        new EventsReplayer(eventsBus).replay(directory, false);
+
+        assertEquals(2, listener.received.size());
+        assertEquals("session-0", listener.received.get(0));
+        assertEquals("session-1", listener.received.get(1));
+    }
+
+}
@@ -0,0 +1,303 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EventsQueueTest {
+
+    @EventsListener
+    public interface ProgressListener {
+
+        @EventsOnThread(EventsOnThread.NEW_THREAD)
+        void onProgress(int value);
+
+        @EventsOnThread(EventsOnThread.NEW_THREAD)
+        @EventsQueue(capacity = 2, overflow = EventsQueue.DROP_NEWEST)
+        void onDropNewest(int value);
+
+        @EventsOnThread(EventsOnThread.NEW_THREAD)
+        @EventsQueue(capacity = 2, overflow = EventsQueue.DROP_OLDEST)
+        void onDropOldest(int value);
+
+        @EventsOnThread(EventsOnThread.NEW_THREAD)
+        @EventsQueue(capacity = 2)
+        void onReportAndDrop(int value);
+
+        @EventsOnThread(EventsOnThread.SERIAL_THREAD)
+        @EventsQueue(capacity = 1, overflow = EventsQueue.BLOCK)
+        void onBlock(int value);
+
+    }
+
+    static class RecordingListener implements ProgressListener {
+
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done;
+
+        RecordingListener() {
+            this(0);
+        }
+
+        RecordingListener(int expectedCount) {
+            done = new CountDownLatch(expectedCount);
+        }
+
+        @Override
+        public void onProgress(int value) {
+            received.add(value);
+            done.countDown();
+        }
+
+        @Override
+        public void onDropNewest(int value) {
+            received.add(value);
+        }
+
+        @Override
+        public void onDropOldest(int value) {
+            received.add(value);
+        }
+
+        @Override
+        public void onReportAndDrop(int value) {
+            received.add(value);
+        }
+
+        @Override
+        public void onBlock(int value) {
+            received.add(value);
+            done.countDown();
+        }
+
+    }
+
+    private static void runAll(List<Runnable> pending) {
+        while (!pending.isEmpty()) {
+            pending.remove(0).run();
+        }
+    }
+
+    @Test
+    public void dropNewestKeepsQueuedCalls() {
+        List<Runnable> pending = new ArrayList<>();
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(pending::add);
+        RecordingListener listener = new RecordingListener();
+        eventsBus.registerListener(listener);
+
+        ProgressListener helper = eventsBus.of(ProgressListener.class);
+        for (int i = 0; i < 5; i++) {
+            helper.onDropNewest(i);
+        }
+
+        assertEquals(2, pending.size());
+        runAll(pending);
+        assertEquals(2, listener.received.size());
+        assertEquals(0, (int) listener.received.get(0));
+        assertEquals(1, (int) listener.received.get(1));
+
+        // Queue accepts calls again once listener has taken them
+        helper.onDropNewest(5);
+        runAll(pending);
+        assertEquals(5, (int) listener.received.get(2));
+    }
+
+    @Test
+    public void dropOldestKeepsLatestCalls() {
+        List<Runnable> pending = new ArrayList<>();
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(pending::add);
+        RecordingListener listener = new RecordingListener();
+        eventsBus.registerListener(listener);
+
+        ProgressListener helper = eventsBus.of(ProgressListener.class);
+        for (int i = 0; i < 5; i++) {
+            helper.onDropOldest(i);
+        }
+
+        assertEquals(2, pending.size());
+        runAll(pending);
+        assertEquals(2, listener.received.size());
+        assertEquals(3, (int) listener.received.get(0));
+        assertEquals(4, (int) listener.received.get(1));
+    }
+
+    @Test
+    public void reportAndDropReportsToMonitor() {
+        List<Runnable> pending = new ArrayList<>();
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(pending::add);
+        DefaultEventsMonitor monitor = new DefaultEventsMonitor();
+        eventsBus.setMonitor(monitor);
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        eventsBus.registerListeners(first, second);
+
+        ProgressListener helper = eventsBus.of(ProgressListener.class);
+        for (int i = 0; i < 5; i++) {
+            helper.onReportAndDrop(i);
+        }
+        runAll(pending);
+
+        // Each listener has its own queue
+        assertEquals(2, first.received.size());
+        assertEquals(2, second.received.size());
+        DefaultEventsMonitor.MethodStats stats = monitor.snapshot().methods.get(0);
+        assertEquals("onReportAndDrop", stats.methodName);
+        assertEquals(5, stats.publishedCount);
+        assertEquals(4, stats.deliveredCount);
+        assertEquals(6, stats.droppedCount);
+    }
+
+    @Test
+    public void batchCallsTakeRoomInBoundedQueues() {
+        List<Runnable> pending = new ArrayList<>();
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(pending::add);
+        RecordingListener listener = new RecordingListener();
+        eventsBus.registerListener(listener);
+
+        EventsBatch<ProgressListener> batch = eventsBus.newBatch(ProgressListener.class);
+        for (int i = 0; i < 5; i++) {
+            batch.recorder().onDropNewest(i);
+        }
+        batch.publish();
+
+        // Listener receives its calls in one task
+        assertEquals(1, pending.size());
+        runAll(pending);
+        assertEquals(2, listener.received.size());
+        assertEquals(0, (int) listener.received.get(0));
+        assertEquals(1, (int) listener.received.get(1));
+    }
+
+    @Test
+    public void newerCallsReplaceBatchCalls() {
+        List<Runnable> pending = new ArrayList<>();
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(pending::add);
+        RecordingListener listener = new RecordingListener();
+        eventsBus.registerListener(listener);
+
+        EventsBatch<ProgressListener> batch = eventsBus.newBatch(ProgressListener.class);
+        batch.recorder().onDropOldest(0);
+        batch.recorder().onDropOldest(1);
+        batch.publish();
+        eventsBus.of(ProgressListener.class).onDropOldest(2);
+
+        assertEquals(2, pending.size());
+        runAll(pending);
+        assertEquals(2, listener.received.size());
+        assertEquals(1, (int) listener.received.get(0));
+        assertEquals(2, (int) listener.received.get(1));
+    }
+
+    @Test
+    public void batchKeepsOrderOfBoundedCalls() throws Exception {
+        EventsBus eventsBus = new EventsBus();
+        int eventCount = 1000;
+        RecordingListener listener = new RecordingListener(eventCount - 2) {
+            @Override
+            public void onProgress(int value) {
+                if (value == 0) {
+                    // Later calls would overtake a slow one if they ran in other tasks
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.onProgress(value);
+            }
+        };
+        eventsBus.registerListener(listener);
+
+        EventsBatch<ProgressListener> batch = eventsBus.newBatch(ProgressListener.class);
+        for (int i = 0; i < eventCount; i++) {
+            // Bounded calls within capacity between unbounded ones
+            if (i == eventCount / 3 || i == eventCount * 2 / 3) {
+                batch.recorder().onDropNewest(i);
+            } else {
+                batch.recorder().onProgress(i);
+            }
+        }
+        batch.publish();
+
+        assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < eventCount; i++) {
+            assertEquals(i, (int) listener.received.get(i));
+        }
+    }
+
+    @Test
+    public void blockWaitsForListener() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            EventsBus eventsBus = new EventsBus();
+            eventsBus.setNewThreadExecutor(executor);
+            int eventCount = 100;
+            RecordingListener listener = new RecordingListener(eventCount);
+            eventsBus.registerListener(listener);
+
+            ProgressListener helper = eventsBus.of(ProgressListener.class);
+            for (int i = 0; i < eventCount; i++) {
+                helper.onBlock(i);
+            }
+
+            assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < eventCount; i++) {
+                assertEquals(i, (int) listener.received.get(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void blockDropsCallsPublishedOnMainThread() {
+        List<Runnable> pending = new ArrayList<>();
+        // Scheduler whose main thread is the test thread
+        EventsBus eventsBus = new EventsBus(new EventsScheduler() {
+            @Override
+            public void schedule(@NonNull Runnable runnable) {
+                pending.add(runnable);
+            }
+
+            @Override
+            public int getQueueDepth() {
+                return pending.size();
+            }
+
+            @Override
+            public boolean isCurrentThread() {
+                return true;
+            }
+        });
+        eventsBus.setNewThreadExecutor(pending::add);
+        DefaultEventsMonitor monitor = new DefaultEventsMonitor();
+        eventsBus.setMonitor(monitor);
+        RecordingListener listener = new RecordingListener();
+        eventsBus.registerListener(listener);
+
+        ProgressListener helper = eventsBus.of(ProgressListener.class);
+        helper.onBlock(0);
+        helper.onBlock(1);
+        runAll(pending);
+
+        assertEquals(1, listener.received.size());
+        assertEquals(0, (int) listener.received.get(0));
+        assertEquals(1, monitor.snapshot().methods.get(0).droppedCount);
+    }
+
+}
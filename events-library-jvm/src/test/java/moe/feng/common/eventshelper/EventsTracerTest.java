@@ -0,0 +1,92 @@
+package moe.feng.common.eventshelper;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class EventsTracerTest {
+
+    @EventsListener
+    public interface TraceListener {
+
+        void onTrace(int value);
+
+        @EventsOnThread(EventsOnThread.NEW_THREAD)
+        void onAsyncTrace(int value);
+
+    }
+
+    private static TraceListener newHelper(EventsTracer tracer) {
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(Runnable::run);
+        eventsBus.setTracer(tracer);
+        eventsBus.registerListener(new TraceListener() {
+            @Override
+            public void onTrace(int value) {}
+
+            @Override
+            public void onAsyncTrace(int value) {}
+        }, "A");
+        return new Helper$$moe_feng_common_eventshelper_EventsTracerTest_TraceListener(
+                "A", eventsBus);
+    }
+
+    @Test
+    public void exportsChromeTraceEvents() {
+        EventsTracer tracer = new EventsTracer(16);
+        TraceListener helper = newHelper(tracer);
+
+        helper.onTrace(1);
+        helper.onAsyncTrace(2);
+
+        String json = tracer.toChromeTraceJson();
+        assertTrue(json, json.startsWith("{\"traceEvents\":["));
+        assertTrue(json, json.contains("\"ph\":\"i\""));
+        assertTrue(json, json.contains("\"ph\":\"X\""));
+        assertTrue(json, json.contains("\"ph\":\"C\""));
+        assertTrue(json, json.contains("\"ph\":\"M\""));
+        assertTrue(json, json.contains(TraceListener.class.getName() + "#onAsyncTrace"));
+        assertTrue(json, json.contains("\"tag\":\"A\""));
+    }
+
+    @Test
+    public void ringBufferKeepsLatestRecords() {
+        EventsTracer tracer = new EventsTracer(4);
+        TraceListener helper = newHelper(tracer);
+
+        for (int i = 0; i < 100; i++) {
+            helper.onTrace(i);
+        }
+
+        String json = tracer.toChromeTraceJson();
+        int count = json.split("\"cat\":\"").length - 1;
+        assertEquals(4, count);
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        TraceListener helper = newHelper(new EventsTracer(1024));
+
+        for (int i = 0; i < 20_000; i++) {
+            helper.onTrace(i);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            helper.onTrace(i);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("Tracing allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+}
@@ -0,0 +1,83 @@
+package moe.feng.common.eventshelper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KeyedListenerTest {
+
+    @EventsListener
+    public interface DownloadListener {
+
+        void onProgress(@EventsKey long downloadId, int progress);
+
+        void onAllPaused();
+
+    }
+
+    static class RecordingListener implements DownloadListener {
+
+        final List<String> received = new ArrayList<>();
+
+        @Override
+        public void onProgress(long downloadId, int progress) {
+            received.add(downloadId + ":" + progress);
+        }
+
+        @Override
+        public void onAllPaused() {
+            received.add("paused");
+        }
+
+    }
+
+    @Test
+    public void routesCallsByKey() {
+        EventsBus eventsBus = new EventsBus();
+        RecordingListener all = new RecordingListener();
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        eventsBus.registerListener(all);
+        eventsBus.registerListener(first, null, 1000L);
+        eventsBus.registerListener(second, null, 2000L, 3000L);
+        DownloadListener helper =
+                new Helper$$moe_feng_common_eventshelper_KeyedListenerTest_DownloadListener(
+                        null, eventsBus);
+
+        helper.onProgress(1000L, 10);
+        helper.onProgress(3000L, 30);
+        helper.onProgress(4000L, 40);
+        helper.onAllPaused();
+
+        assertEquals(4, all.received.size());
+        assertEquals(2, first.received.size());
+        assertEquals("1000:10", first.received.get(0));
+        assertEquals("paused", first.received.get(1));
+        assertEquals(2, second.received.size());
+        assertEquals("3000:30", second.received.get(0));
+        assertEquals("paused", second.received.get(1));
+    }
+
+    @Test
+    public void proxyRoutesCallsByKey() {
+        EventsBus eventsBus = new EventsBus();
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        eventsBus.registerListener(first, null, 1L);
+        eventsBus.registerListener(second, null, 2L);
+
+        eventsBus.proxyOf(DownloadListener.class, null).onProgress(2L, 20);
+
+        assertTrue(first.received.isEmpty());
+        assertEquals(1, second.received.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyKeysAreRejected() {
+        new EventsBus().registerListener(new RecordingListener(), null, new Object[0]);
+    }
+
+}
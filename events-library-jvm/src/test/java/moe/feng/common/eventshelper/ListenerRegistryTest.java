@@ -0,0 +1,276 @@
+package moe.feng.common.eventshelper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ListenerRegistryTest {
+
+    @EventsListener
+    public interface FooListener {
+        void onFoo(int value);
+    }
+
+    @EventsListener
+    public interface BarListener {
+        void onBar(String value);
+    }
+
+    static class FooImpl implements FooListener {
+        @Override
+        public void onFoo(int value) {}
+    }
+
+    static class FooBarImpl implements FooListener, BarListener {
+        @Override
+        public void onFoo(int value) {}
+
+        @Override
+        public void onBar(String value) {}
+    }
+
+    static class InheritedFoo extends FooImpl {}
+
+    static Object[] listenersOf(Subscription[] subscriptions) {
+        Object[] listeners = new Object[subscriptions.length];
+        for (int i = 0; i < subscriptions.length; i++) {
+            listeners[i] = subscriptions[i].get();
+        }
+        return listeners;
+    }
+
+    @Test
+    public void indexesByInterfaceAndTag() {
+        ListenerRegistry registry = new ListenerRegistry();
+        FooImpl foo = new FooImpl();
+        FooBarImpl fooBar = new FooBarImpl();
+        registry.register(foo, null, false);
+        registry.register(fooBar, "A", false);
+
+        assertEquals(2, registry.get(FooListener.class, null).length);
+        assertArrayEquals(new Object[] { fooBar },
+                listenersOf(registry.get(FooListener.class, "A")));
+        assertArrayEquals(new Object[] { fooBar },
+                listenersOf(registry.get(BarListener.class, null)));
+        assertEquals(0, registry.get(BarListener.class, "B").length);
+
+        registry.unregister(fooBar);
+        assertArrayEquals(new Object[] { foo }, listenersOf(registry.get(FooListener.class, null)));
+        assertEquals(0, registry.get(BarListener.class, null).length);
+    }
+
+    @Test
+    public void indexesByKey() {
+        ListenerRegistry registry = new ListenerRegistry();
+        FooImpl any = new FooImpl();
+        FooImpl first = new FooImpl();
+        FooImpl both = new FooImpl();
+        registry.register(any, null, false);
+        registry.register(first, null, new HashSet<>(Arrays.asList(1L)), false);
+        registry.register(both, "A", new HashSet<>(Arrays.asList(1L, 2L)), false);
+
+        assertArrayEquals(new Object[] { any, first, both },
+                listenersOf(registry.get(FooListener.class, null, 1L)));
+        assertArrayEquals(new Object[] { any, both },
+                listenersOf(registry.get(FooListener.class, null, 2L)));
+        assertArrayEquals(new Object[] { any },
+                listenersOf(registry.get(FooListener.class, null, 3L)));
+        assertArrayEquals(new Object[] { any },
+                listenersOf(registry.get(FooListener.class, null, null)));
+        assertArrayEquals(new Object[] { both },
+                listenersOf(registry.get(FooListener.class, "A", 2L)));
+        assertEquals(3, registry.get(FooListener.class, null).length);
+
+        registry.unregister(both);
+        assertArrayEquals(new Object[] { any },
+                listenersOf(registry.get(FooListener.class, null, 2L)));
+        registry.unregister(any);
+        assertArrayEquals(new Object[] { first },
+                listenersOf(registry.get(FooListener.class, null, 1L)));
+        assertEquals(0, registry.get(FooListener.class, null, 2L).length);
+
+        // Registering again replaces keys
+        registry.register(first, null, new HashSet<>(Arrays.asList(2L)), false);
+        assertEquals(0, registry.get(FooListener.class, null, 1L).length);
+        assertArrayEquals(new Object[] { first },
+                listenersOf(registry.get(FooListener.class, null, 2L)));
+    }
+
+    @Test
+    public void reRegisterWithNewTagMovesListener() {
+        ListenerRegistry registry = new ListenerRegistry();
+        FooImpl foo = new FooImpl();
+        registry.register(foo, "A", false);
+        registry.register(foo, "B", false);
+
+        assertEquals(1, registry.size());
+        assertEquals(0, registry.get(FooListener.class, "A").length);
+        assertArrayEquals(new Object[] { foo }, listenersOf(registry.get(FooListener.class, "B")));
+    }
+
+    @Test
+    public void resolvesInterfacesOfSuperclass() {
+        ListenerRegistry registry = new ListenerRegistry();
+        InheritedFoo foo = new InheritedFoo();
+        registry.register(foo, null, false);
+
+        assertArrayEquals(new Object[] { foo }, listenersOf(registry.get(FooListener.class, null)));
+    }
+
+    @Test
+    public void cachesInterfacesPerClass() {
+        ListenerRegistry registry = new ListenerRegistry();
+        Set<Class<?>> interfaces = registry.getListenerInterfaces(InheritedFoo.class);
+
+        assertEquals(Collections.singleton(FooListener.class), interfaces);
+        assertSame(interfaces, registry.getListenerInterfaces(InheritedFoo.class));
+        assertTrue(registry.getListenerInterfaces(Object.class).isEmpty());
+    }
+
+    @Test
+    public void bulkWritesMatchSingleWrites() {
+        FooImpl keyed = new FooImpl();
+        FooImpl replaced = new FooImpl();
+        FooImpl first = new FooImpl();
+        FooBarImpl second = new FooBarImpl();
+        ListenerRegistry single = new ListenerRegistry();
+        ListenerRegistry bulk = new ListenerRegistry();
+        for (ListenerRegistry registry : new ListenerRegistry[] { single, bulk }) {
+            registry.register(keyed, "A", new HashSet<>(Arrays.asList(1L)), false);
+            registry.register(replaced, null, false);
+        }
+        single.register(first, "A", false);
+        single.register(replaced, "A", false);
+        single.register(second, "A", false);
+        bulk.registerAll(new Object[] { first, replaced, second }, "A", false);
+
+        assertEquals(single.size(), bulk.size());
+        for (String tag : new String[] { null, "A" }) {
+            for (Object key : new Object[] { null, 1L, 2L }) {
+                assertArrayEquals(listenersOf(single.get(FooListener.class, tag, key)),
+                        listenersOf(bulk.get(FooListener.class, tag, key)));
+            }
+            assertArrayEquals(listenersOf(single.get(FooListener.class, tag)),
+                    listenersOf(bulk.get(FooListener.class, tag)));
+            assertArrayEquals(listenersOf(single.get(BarListener.class, tag)),
+                    listenersOf(bulk.get(BarListener.class, tag)));
+        }
+
+        single.unregister(keyed);
+        single.unregister(second);
+        bulk.unregisterAll(new Object[] { keyed, second, second, new FooImpl() });
+
+        assertEquals(2, bulk.size());
+        assertArrayEquals(listenersOf(single.get(FooListener.class, "A", 1L)),
+                listenersOf(bulk.get(FooListener.class, "A", 1L)));
+        assertArrayEquals(new Object[] { first, replaced },
+                listenersOf(bulk.get(FooListener.class, null)));
+        assertEquals(0, bulk.get(BarListener.class, null).length);
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterWrites() {
+        ListenerRegistry registry = new ListenerRegistry();
+        FooImpl foo = new FooImpl();
+        registry.register(foo, null, false);
+        Subscription[] snapshot = registry.get(FooListener.class, null);
+
+        registry.register(new FooImpl(), null, false);
+        registry.unregister(foo);
+
+        assertArrayEquals(new Object[] { foo }, listenersOf(snapshot));
+    }
+
+    @Test
+    public void concurrentRegistrationsAreNotLost() throws Exception {
+        final int threads = 8;
+        final int perThread = 500;
+        final ListenerRegistry registry = new ListenerRegistry();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<Object>>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final String tag = "T" + t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                List<Object> kept = new ArrayList<>();
+                for (int i = 0; i < perThread; i++) {
+                    Object listener = i % 2 == 0 ? new FooImpl() : new FooBarImpl();
+                    registry.register(listener, tag, false);
+                    if (i % 3 == 0) {
+                        registry.unregister(listener);
+                    } else {
+                        kept.add(listener);
+                    }
+                }
+                return kept;
+            }));
+        }
+        start.countDown();
+
+        int expected = 0;
+        for (int t = 0; t < threads; t++) {
+            List<Object> kept = futures.get(t).get(30, TimeUnit.SECONDS);
+            expected += kept.size();
+            Subscription[] tagged = registry.get(FooListener.class, "T" + t);
+            assertEquals(kept.size(), tagged.length);
+        }
+        executor.shutdown();
+
+        assertEquals(expected, registry.size());
+        assertEquals(expected, registry.get(FooListener.class, null).length);
+    }
+
+    @Test
+    public void readersIterateWhileWritersMutate() throws Exception {
+        final ListenerRegistry registry = new ListenerRegistry();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Throwable> errors = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        for (int r = 0; r < 4; r++) {
+            executor.execute(() -> {
+                try {
+                    while (running.get()) {
+                        for (Subscription subscription : registry.get(FooListener.class, null)) {
+                            ((FooListener) subscription.get()).onFoo(1);
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+        }
+        for (int w = 0; w < 2; w++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    FooImpl listener = new FooImpl();
+                    registry.register(listener, null, false);
+                    registry.unregister(listener);
+                }
+            });
+        }
+        Thread.sleep(500);
+        running.set(false);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(0, registry.size());
+    }
+
+}
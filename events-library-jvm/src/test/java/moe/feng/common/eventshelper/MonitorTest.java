@@ -0,0 +1,152 @@
+package moe.feng.common.eventshelper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MonitorTest {
+
+    @EventsListener
+    public interface StatusListener {
+
+        void onStatus(int status);
+
+        @EventsOnThread(EventsOnThread.NEW_THREAD)
+        void onAsyncStatus(int status);
+
+    }
+
+    @Test
+    public void recordsPublishesAndDeliveries() {
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(Runnable::run);
+        DefaultEventsMonitor monitor = new DefaultEventsMonitor();
+        eventsBus.setMonitor(monitor);
+        for (int i = 0; i < 3; i++) {
+            eventsBus.registerListener(new StatusListener() {
+                @Override
+                public void onStatus(int status) {}
+
+                @Override
+                public void onAsyncStatus(int status) {}
+            }, "A");
+        }
+        StatusListener helper = new Helper$$moe_feng_common_eventshelper_MonitorTest_StatusListener(
+                "A", eventsBus);
+
+        helper.onStatus(1);
+        helper.onStatus(2);
+        helper.onAsyncStatus(3);
+
+        DefaultEventsMonitor.Snapshot snapshot = monitor.snapshot();
+        assertEquals(2, snapshot.methods.size());
+        for (DefaultEventsMonitor.MethodStats stats : snapshot.methods) {
+            assertEquals(StatusListener.class.getName(), stats.listenerClassName);
+            assertEquals("A", stats.tag);
+            if ("onStatus".equals(stats.methodName)) {
+                assertEquals(2, stats.publishedCount);
+                assertEquals(6, stats.deliveredCount);
+            } else {
+                assertEquals("onAsyncStatus", stats.methodName);
+                assertEquals(1, stats.publishedCount);
+                assertEquals(3, stats.deliveredCount);
+            }
+            long recorded = 0;
+            for (long count : stats.executionHistogram) {
+                recorded += count;
+            }
+            assertEquals(stats.deliveredCount, recorded);
+        }
+        assertEquals(1, snapshot.backlogs.size());
+        assertEquals(EventsOnThread.NEW_THREAD, snapshot.backlogs.get(0).threadType);
+    }
+
+    @Test
+    public void recordsDeliveriesOfThrowingListeners() {
+        EventsBus eventsBus = new EventsBus();
+        DefaultEventsMonitor monitor = new DefaultEventsMonitor();
+        eventsBus.setMonitor(monitor);
+        eventsBus.registerListener(new StatusListener() {
+            @Override
+            public void onStatus(int status) {
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public void onAsyncStatus(int status) {}
+        });
+
+        try {
+            eventsBus.of(StatusListener.class).onStatus(1);
+            fail();
+        } catch (IllegalStateException expected) {
+            // Listener exceptions are thrown to publisher
+        }
+        EventsBatch<StatusListener> batch = eventsBus.newBatch(StatusListener.class);
+        batch.recorder().onStatus(2);
+        try {
+            batch.publish();
+            fail();
+        } catch (IllegalStateException expected) {
+            // Batch deliveries on current thread throw too
+        }
+
+        DefaultEventsMonitor.Snapshot snapshot = monitor.snapshot();
+        assertEquals(1, snapshot.methods.size());
+        assertEquals(2, snapshot.methods.get(0).deliveredCount);
+    }
+
+    @Test
+    public void recordsQueuedTimeOfQueuedDeliveriesOnly() {
+        List<Runnable> pending = new ArrayList<>();
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(pending::add);
+        DefaultEventsMonitor monitor = new DefaultEventsMonitor();
+        eventsBus.setMonitor(monitor);
+        eventsBus.registerListener(new StatusListener() {
+            @Override
+            public void onStatus(int status) {}
+
+            @Override
+            public void onAsyncStatus(int status) {}
+        });
+
+        StatusListener helper = eventsBus.of(StatusListener.class);
+        helper.onStatus(1);
+        helper.onAsyncStatus(2);
+        EventsBatch<StatusListener> batch = eventsBus.newBatch(StatusListener.class);
+        batch.recorder().onStatus(3);
+        batch.recorder().onAsyncStatus(4);
+        batch.publish();
+        for (Runnable runnable : pending) {
+            runnable.run();
+        }
+
+        for (DefaultEventsMonitor.MethodStats stats : monitor.snapshot().methods) {
+            assertEquals(2, stats.deliveredCount);
+            long recorded = 0;
+            for (long count : stats.queuedHistogram) {
+                recorded += count;
+            }
+            assertEquals("onStatus".equals(stats.methodName) ? 0 : 2, recorded);
+        }
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(1_000_000);
+
+        long[] counts = histogram.getCounts();
+        assertEquals(128, LatencyHistogram.percentileOf(counts, 50));
+        assertEquals(128, LatencyHistogram.percentileOf(counts, 99));
+        assertEquals(1 << 20, LatencyHistogram.percentileOf(counts, 100));
+    }
+
+}
@@ -0,0 +1,112 @@
+package moe.feng.common.eventshelper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SerialThreadTest {
+
+    @EventsListener
+    public interface OrderListener {
+
+        @EventsOnThread(EventsOnThread.SERIAL_THREAD)
+        void onOrder(int sequence);
+
+    }
+
+    static class CheckingListener implements OrderListener {
+
+        final List<Integer> received = new ArrayList<>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final CountDownLatch done;
+
+        CheckingListener(int expectedCount) {
+            done = new CountDownLatch(expectedCount);
+        }
+
+        @Override
+        public void onOrder(int sequence) {
+            if (running.incrementAndGet() != 1) {
+                overlapped.set(true);
+            }
+            // Not synchronized: deliveries to a listener must not run concurrently
+            received.add(sequence);
+            running.decrementAndGet();
+            done.countDown();
+        }
+
+    }
+
+    @Test
+    public void deliversToEachListenerInOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            EventsBus eventsBus = new EventsBus();
+            eventsBus.setNewThreadExecutor(executor);
+            int eventCount = 5000;
+            CheckingListener[] listeners = new CheckingListener[16];
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i] = new CheckingListener(eventCount);
+                eventsBus.registerListener(listeners[i]);
+            }
+
+            OrderListener helper = eventsBus.of(OrderListener.class);
+            for (int i = 0; i < eventCount; i++) {
+                helper.onOrder(i);
+            }
+
+            for (CheckingListener listener : listeners) {
+                assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+                assertFalse(listener.overlapped.get());
+                assertEquals(eventCount, listener.received.size());
+                for (int i = 0; i < eventCount; i++) {
+                    assertEquals(i, (int) listener.received.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void listenersRunInParallel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            EventsBus eventsBus = new EventsBus();
+            eventsBus.setNewThreadExecutor(executor);
+            // Each listener blocks until the other one has started
+            CountDownLatch started = new CountDownLatch(2);
+            AtomicBoolean parallel = new AtomicBoolean(true);
+            for (int i = 0; i < 2; i++) {
+                eventsBus.registerListener((OrderListener) sequence -> {
+                    started.countDown();
+                    try {
+                        parallel.compareAndSet(true, started.await(5, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            eventsBus.of(OrderListener.class).onOrder(0);
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertTrue(parallel.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,331 @@
+package moe.feng.common.eventshelper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class StickyTest {
+
+    @EventsListener
+    public interface StatusListener {
+
+        @Sticky
+        void onStatus(int status);
+
+        @Sticky
+        void onStatus(String status);
+
+        @Sticky
+        @EventsOnThread(EventsOnThread.NEW_THREAD)
+        void onAsyncStatus(int status);
+
+        void onPlainStatus(int status);
+
+        @Sticky
+        @EventsOnThread(EventsOnThread.SERIAL_THREAD)
+        void onSerialStatus(int status);
+
+        @Sticky
+        @Conflate
+        @EventsOnThread(EventsOnThread.NEW_THREAD)
+        void onConflatedStatus(int status);
+
+    }
+
+    static class RecordingListener implements StatusListener {
+
+        final List<String> received = new ArrayList<>();
+
+        @Override
+        public void onStatus(int status) {
+            received.add("int:" + status);
+        }
+
+        @Override
+        public void onStatus(String status) {
+            received.add("string:" + status);
+        }
+
+        @Override
+        public void onAsyncStatus(int status) {
+            received.add("async:" + status);
+        }
+
+        @Override
+        public void onPlainStatus(int status) {
+            received.add("plain:" + status);
+        }
+
+        @Override
+        public void onSerialStatus(int status) {
+            received.add("serial:" + status);
+        }
+
+        @Override
+        public void onConflatedStatus(int status) {
+            received.add("conflated:" + status);
+        }
+
+    }
+
+    static class OrderCheckingListener extends RecordingListener {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile int last = -1;
+        volatile boolean outOfOrder;
+
+        @Override
+        public void onSerialStatus(int status) {
+            // Each call arrives once, and never after a newer one
+            if (status <= last) {
+                outOfOrder = true;
+            }
+            last = status;
+            if (status == Integer.MAX_VALUE) {
+                done.countDown();
+            }
+        }
+
+    }
+
+    @Test
+    public void replaysLatestCallsOnRegistration() {
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(Runnable::run);
+        StatusListener helper = eventsBus.of(StatusListener.class);
+        helper.onStatus(1);
+        helper.onStatus("ready");
+        helper.onAsyncStatus(10);
+        helper.onStatus(2);
+        helper.onPlainStatus(3);
+
+        RecordingListener listener = new RecordingListener();
+        eventsBus.registerListener(listener);
+
+        // Replayed in update order, and overloaded methods are kept separately
+        assertEquals(3, listener.received.size());
+        assertEquals("string:ready", listener.received.get(0));
+        assertEquals("async:10", listener.received.get(1));
+        assertEquals("int:2", listener.received.get(2));
+
+        helper.onStatus(4);
+        assertEquals("int:4", listener.received.get(3));
+    }
+
+    @Test
+    public void replaysCallsOfMatchingTags() {
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.of(StatusListener.class, "A").onStatus(1);
+
+        RecordingListener tagged = new RecordingListener();
+        RecordingListener otherTagged = new RecordingListener();
+        RecordingListener untagged = new RecordingListener();
+        eventsBus.registerListener(tagged, "A");
+        eventsBus.registerListener(otherTagged, "B");
+        eventsBus.registerListener(untagged);
+
+        assertEquals(1, tagged.received.size());
+        assertTrue(otherTagged.received.isEmpty());
+        assertTrue(untagged.received.isEmpty());
+
+        // Calls of helpers without tag reach listeners with any tag
+        eventsBus.of(StatusListener.class).onStatus("all");
+        RecordingListener lateTagged = new RecordingListener();
+        eventsBus.registerListener(lateTagged, "B");
+        assertEquals(1, lateTagged.received.size());
+        assertEquals("string:all", lateTagged.received.get(0));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUpdatedCalls() {
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setStickyCacheSize(2);
+        eventsBus.of(StatusListener.class, "A").onStatus(1);
+        eventsBus.of(StatusListener.class, "B").onStatus(2);
+        eventsBus.of(StatusListener.class, "A").onStatus(3);
+        eventsBus.of(StatusListener.class, "C").onStatus(4);
+
+        RecordingListener a = new RecordingListener();
+        RecordingListener b = new RecordingListener();
+        RecordingListener c = new RecordingListener();
+        eventsBus.registerListener(a, "A");
+        eventsBus.registerListener(b, "B");
+        eventsBus.registerListener(c, "C");
+
+        assertEquals(1, a.received.size());
+        assertEquals("int:3", a.received.get(0));
+        assertTrue(b.received.isEmpty());
+        assertEquals(1, c.received.size());
+
+        eventsBus.clearStickyCalls();
+        RecordingListener late = new RecordingListener();
+        eventsBus.registerListener(late, "A");
+        assertTrue(late.received.isEmpty());
+    }
+
+    @Test
+    public void registeringAgainDoesNotReplay() {
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.of(StatusListener.class).onStatus(1);
+
+        RecordingListener listener = new RecordingListener();
+        eventsBus.registerListener(listener);
+        eventsBus.registerListener(listener);
+        eventsBus.registerListeners(listener);
+        assertEquals(1, listener.received.size());
+
+        // Registering with another tag replaces the subscription
+        eventsBus.registerListener(listener, "A");
+        assertEquals(2, listener.received.size());
+    }
+
+    @Test
+    public void keepsCallsPublishedByBatches() {
+        EventsBus eventsBus = new EventsBus();
+        EventsBatch<StatusListener> batch = eventsBus.newBatch(StatusListener.class);
+        batch.recorder().onStatus(1);
+        batch.recorder().onStatus("ready");
+        batch.recorder().onStatus(2);
+        batch.publish();
+
+        RecordingListener listener = new RecordingListener();
+        eventsBus.registerListener(listener);
+
+        assertEquals(2, listener.received.size());
+        assertEquals("string:ready", listener.received.get(0));
+        assertEquals("int:2", listener.received.get(1));
+    }
+
+    @Test
+    public void skipsReplayedCallsReplacedByNewerOnes() {
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(Runnable::run);
+        StatusListener helper = eventsBus.of(StatusListener.class);
+        helper.onStatus(0);
+        helper.onSerialStatus(1);
+
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onStatus(int status) {
+                super.onStatus(status);
+                // Publish a newer call while kept calls are being replayed
+                helper.onSerialStatus(2);
+            }
+        };
+        eventsBus.registerListener(listener);
+
+        assertEquals(2, listener.received.size());
+        assertEquals("int:0", listener.received.get(0));
+        assertEquals("serial:2", listener.received.get(1));
+    }
+
+    @Test
+    public void replayNeverDeliversOlderCallsAfterNewerOnes() throws Exception {
+        EventsBus eventsBus = new EventsBus();
+        StatusListener helper = eventsBus.of(StatusListener.class);
+        helper.onSerialStatus(0);
+        AtomicBoolean publishing = new AtomicBoolean(true);
+        Thread publisher = new Thread(() -> {
+            for (int i = 1; i <= 5000 && publishing.get(); i++) {
+                helper.onSerialStatus(i);
+            }
+        });
+        publisher.start();
+
+        List<OrderCheckingListener> listeners = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            OrderCheckingListener listener = new OrderCheckingListener();
+            eventsBus.registerListener(listener);
+            listeners.add(listener);
+            Thread.yield();
+        }
+        publishing.set(false);
+        publisher.join();
+        helper.onSerialStatus(Integer.MAX_VALUE);
+
+        for (OrderCheckingListener listener : listeners) {
+            assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+            assertFalse(listener.outOfOrder);
+        }
+    }
+
+    @Test
+    public void listenersRegisteredWhilePublishingReceiveCallsOnce() throws Exception {
+        EventsBus eventsBus = new EventsBus();
+        StatusListener helper = eventsBus.of(StatusListener.class);
+        int publisherCount = 4;
+        int callCount = 2000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> publishers = new ArrayList<>();
+        for (int i = 0; i < publisherCount; i++) {
+            int first = i * callCount;
+            Thread publisher = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int status = first; status < first + callCount; status++) {
+                    helper.onStatus(status);
+                }
+            });
+            publisher.start();
+            publishers.add(publisher);
+        }
+
+        List<Set<Integer>> statusSets = new ArrayList<>();
+        AtomicBoolean repeated = new AtomicBoolean();
+        start.countDown();
+        for (int i = 0; i < 500; i++) {
+            Set<Integer> statuses = Collections.synchronizedSet(new HashSet<>());
+            statusSets.add(statuses);
+            eventsBus.registerListener(new RecordingListener() {
+                @Override
+                public void onStatus(int status) {
+                    if (!statuses.add(status)) {
+                        repeated.set(true);
+                    }
+                }
+            });
+        }
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+
+        assertFalse(repeated.get());
+        // Each listener still received at least the latest call
+        for (Set<Integer> statuses : statusSets) {
+            assertFalse(statuses.isEmpty());
+        }
+    }
+
+    @Test
+    public void conflatedCallsSkipListenersReceivingThemByReplay() {
+        List<Runnable> pending = new ArrayList<>();
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setNewThreadExecutor(pending::add);
+        RecordingListener first = new RecordingListener();
+        eventsBus.registerListener(first);
+        StatusListener helper = eventsBus.of(StatusListener.class);
+
+        helper.onConflatedStatus(1);
+        RecordingListener second = new RecordingListener();
+        eventsBus.registerListener(second);
+        while (!pending.isEmpty()) {
+            pending.remove(0).run();
+        }
+
+        assertEquals(Collections.singletonList("conflated:1"), first.received);
+        assertEquals(Collections.singletonList("conflated:1"), second.received);
+    }
+
+}
@@ -0,0 +1,173 @@
+package moe.feng.common.eventshelper;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ThreadTypeTest {
+
+    @EventsListener
+    public interface WorkListener {
+
+        @EventsOnThread(EventsOnThread.IO_THREAD)
+        void onRead(String path);
+
+        @EventsOnThread(EventsOnThread.COMPUTATION_THREAD)
+        void onCompute(int value);
+
+        @EventsOnThread(EventsOnThread.MAIN_IDLE_THREAD)
+        void onIdle(String message);
+
+    }
+
+    static class ThreadRecordingListener implements WorkListener {
+
+        final AtomicReference<Thread> readThread = new AtomicReference<>();
+        final AtomicReference<Thread> computeThread = new AtomicReference<>();
+        final AtomicReference<Thread> idleThread = new AtomicReference<>();
+        final CountDownLatch latch;
+
+        ThreadRecordingListener(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onRead(String path) {
+            readThread.set(Thread.currentThread());
+            latch.countDown();
+        }
+
+        @Override
+        public void onCompute(int value) {
+            computeThread.set(Thread.currentThread());
+            latch.countDown();
+        }
+
+        @Override
+        public void onIdle(String message) {
+            idleThread.set(Thread.currentThread());
+            latch.countDown();
+        }
+
+    }
+
+    /**
+     * Main scheduler which runs calls only when tests drain it
+     */
+    static class ManualScheduler implements EventsScheduler {
+
+        final List<Runnable> calls = new ArrayList<>();
+        final List<Runnable> idleCalls = new ArrayList<>();
+
+        @Override
+        public void schedule(@NonNull Runnable runnable) {
+            calls.add(runnable);
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return calls.size();
+        }
+
+        @Override
+        public void scheduleIdle(@NonNull Runnable runnable) {
+            idleCalls.add(runnable);
+        }
+
+        @Override
+        public int getIdleQueueDepth() {
+            return idleCalls.size();
+        }
+
+    }
+
+    @Test
+    public void ioAndComputationCallsRunOnTheirPools() throws Exception {
+        EventsBus eventsBus = new EventsBus();
+        ThreadRecordingListener listener = new ThreadRecordingListener(2);
+        eventsBus.registerListener(listener);
+
+        WorkListener helper = eventsBus.of(WorkListener.class);
+        helper.onRead("file");
+        helper.onCompute(1);
+
+        assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+        assertTrue(listener.readThread.get().getName().startsWith("EventsHelper-io-"));
+        assertTrue(listener.computeThread.get().getName()
+                .startsWith("EventsHelper-computation-"));
+    }
+
+    @Test
+    public void idleCallsWaitForIdleMainThread() {
+        ManualScheduler scheduler = new ManualScheduler();
+        EventsBus eventsBus = new EventsBus(scheduler);
+        ThreadRecordingListener listener = new ThreadRecordingListener(1);
+        eventsBus.registerListener(listener);
+
+        eventsBus.of(WorkListener.class).onIdle("later");
+
+        assertTrue(scheduler.calls.isEmpty());
+        assertEquals(1, scheduler.idleCalls.size());
+        assertNull(listener.idleThread.get());
+        scheduler.idleCalls.get(0).run();
+        assertSame(Thread.currentThread(), listener.idleThread.get());
+    }
+
+    @Test
+    public void idleCallsFallBackToMainThread() throws Exception {
+        ExecutorService mainExecutor = Executors.newSingleThreadExecutor();
+        try {
+            EventsBus eventsBus = new EventsBus(EventsExecutors.asScheduler(mainExecutor));
+            Thread mainThread = mainExecutor.submit(Thread::currentThread).get();
+            ThreadRecordingListener listener = new ThreadRecordingListener(1);
+            eventsBus.registerListener(listener);
+
+            eventsBus.of(WorkListener.class).onIdle("later");
+
+            assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+            assertSame(mainThread, listener.idleThread.get());
+        } finally {
+            mainExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void backlogsAreRecordedPerThreadType() {
+        EventsBus eventsBus = new EventsBus(new ManualScheduler());
+        eventsBus.setIoExecutor(Runnable::run);
+        eventsBus.setComputationExecutor(Runnable::run);
+        DefaultEventsMonitor monitor = new DefaultEventsMonitor();
+        eventsBus.setMonitor(monitor);
+        eventsBus.registerListener(new ThreadRecordingListener(3));
+
+        WorkListener helper = eventsBus.of(WorkListener.class);
+        helper.onRead("file");
+        helper.onCompute(1);
+        helper.onIdle("later");
+
+        Set<Integer> threadTypes = new HashSet<>();
+        for (DefaultEventsMonitor.BacklogStats stats : monitor.snapshot().backlogs) {
+            threadTypes.add(stats.threadType);
+            if (stats.threadType == EventsOnThread.MAIN_IDLE_THREAD) {
+                assertEquals(1, stats.currentDepth);
+            }
+        }
+        assertEquals(3, threadTypes.size());
+        assertTrue(threadTypes.contains(EventsOnThread.IO_THREAD));
+        assertTrue(threadTypes.contains(EventsOnThread.COMPUTATION_THREAD));
+        assertTrue(threadTypes.contains(EventsOnThread.MAIN_IDLE_THREAD));
+    }
+
+}
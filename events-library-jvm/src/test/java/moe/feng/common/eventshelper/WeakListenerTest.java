@@ -0,0 +1,94 @@
+package moe.feng.common.eventshelper;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.Assert.*;
+
+public class WeakListenerTest {
+
+    @EventsListener
+    public interface PingListener {
+        void onPing();
+    }
+
+    static class PingImpl implements PingListener {
+        @Override
+        public void onPing() {}
+    }
+
+    private static void awaitCollected(WeakReference<?> reference) throws InterruptedException {
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull("Listener should have been collected", reference.get());
+    }
+
+    @Test
+    public void collectedListenersArePurgedOnDispatch() throws Exception {
+        ListenerRegistry registry = new ListenerRegistry();
+        PingImpl kept = new PingImpl();
+        registry.register(kept, null, true);
+        PingImpl dropped = new PingImpl();
+        registry.register(dropped, "A", true);
+        WeakReference<PingImpl> droppedReference = new WeakReference<>(dropped);
+        assertEquals(2, registry.size());
+
+        dropped = null;
+        awaitCollected(droppedReference);
+
+        // Looking up subscriptions for dispatch purges collected ones
+        Subscription[] subscriptions = registry.get(PingListener.class, null);
+        assertEquals(1, subscriptions.length);
+        assertSame(kept, subscriptions[0].get());
+        assertEquals(0, registry.get(PingListener.class, "A").length);
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void weakListenersDoNotLeakThroughEventsBus() throws Exception {
+        EventsBus eventsBus = new EventsBus();
+        eventsBus.setWeakListenersByDefault(true);
+        PingImpl listener = new PingImpl();
+        eventsBus.registerListener(listener);
+        WeakReference<PingImpl> reference = new WeakReference<>(listener);
+        PingListener helper =
+                new Helper$$moe_feng_common_eventshelper_WeakListenerTest_PingListener(
+                        null, eventsBus);
+        helper.onPing();
+
+        listener = null;
+        awaitCollected(reference);
+
+        helper.onPing();
+        assertEquals(0, eventsBus.getSubscriptions(PingListener.class, null).length);
+    }
+
+    @Test
+    public void strongRegistrationKeepsListener() throws Exception {
+        ListenerRegistry registry = new ListenerRegistry();
+        PingImpl listener = new PingImpl();
+        registry.register(listener, null, false);
+        WeakReference<PingImpl> reference = new WeakReference<>(listener);
+
+        listener = null;
+        System.gc();
+
+        assertNotNull(reference.get());
+        assertEquals(1, registry.get(PingListener.class, null).length);
+    }
+
+    @Test
+    public void unregisterWeakListener() {
+        ListenerRegistry registry = new ListenerRegistry();
+        PingImpl listener = new PingImpl();
+        registry.register(listener, null, true);
+        registry.unregister(listener);
+
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.get(PingListener.class, null).length);
+    }
+
+}
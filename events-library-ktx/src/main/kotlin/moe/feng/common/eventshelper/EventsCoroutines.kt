@@ -0,0 +1,163 @@
+package moe.feng.common.eventshelper
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.asExecutor
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.launch
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.EmptyCoroutineContext
+
+/**
+ * A call to a method of listener interface, which can be delivered to a listener later
+ */
+class EventsCall<T : Any> internal constructor(
+        val method: Method,
+        private val args: Array<out Any?>?
+) {
+
+    val arguments: List<Any?> get() = args?.asList() ?: emptyList()
+
+    fun invoke(listener: T) {
+        try {
+            method.invoke(listener, *(args ?: emptyArray()))
+        } catch (e: InvocationTargetException) {
+            throw e.targetException
+        }
+    }
+
+    override fun toString(): String = "${method.name}(${arguments.joinToString()})"
+
+}
+
+/**
+ * Get a cold flow of calls to listeners of [T]. A listener is registered while the flow is
+ * being collected, and unregistered when collection ends.
+ *
+ * Calls are buffered by [capacity], which accepts [Channel.UNLIMITED] by default,
+ * [Channel.CONFLATED] to keep the latest call only, [Channel.BUFFERED] or a size. With a
+ * limited buffer, calls arriving while it is full are dropped and reported to
+ * [EventsMonitor.onDropped] of monitor and tracer of this bus.
+ */
+@ExperimentalCoroutinesApi
+inline fun <reified T : Any> EventsBus.callsOf(
+        tag: String? = null,
+        capacity: Int = Channel.UNLIMITED
+): Flow<EventsCall<T>> {
+    return this.callsOf(T::class.java, tag, capacity)
+}
+
+@ExperimentalCoroutinesApi
+fun <T : Any> EventsBus.callsOf(
+        listenerClass: Class<T>,
+        tag: String? = null,
+        capacity: Int = Channel.UNLIMITED
+): Flow<EventsCall<T>> {
+    return callbackFlow<EventsCall<T>> {
+        val proxy = newCallsProxy(listenerClass) { call ->
+            if (!offerCall(call)) {
+                reportDropped(listenerClass, call.method, tag)
+            }
+        }
+        registerListener(proxy, tag)
+        awaitClose { unregisterListener(proxy) }
+    }.buffer(capacity)
+}
+
+/**
+ * Register [listener] until [scope] or returned job is cancelled. Calls are delivered to
+ * listener one by one in a coroutine of [scope] with [context], e.g. a dispatcher, instead
+ * of the threads declared by [EventsOnThread].
+ */
+inline fun <reified T : Any> EventsBus.registerListenerIn(
+        scope: CoroutineScope,
+        listener: T,
+        tag: String? = null,
+        context: CoroutineContext = EmptyCoroutineContext
+): Job {
+    return this.registerListenerIn(scope, T::class.java, listener, tag, context)
+}
+
+fun <T : Any> EventsBus.registerListenerIn(
+        scope: CoroutineScope,
+        listenerClass: Class<T>,
+        listener: T,
+        tag: String? = null,
+        context: CoroutineContext = EmptyCoroutineContext
+): Job {
+    val channel = Channel<EventsCall<T>>(Channel.UNLIMITED)
+    val proxy = newCallsProxy(listenerClass) { call -> channel.offerCall(call) }
+    // Register before launching, so calls made after this method returns aren't missed
+    registerListener(proxy, tag)
+    val job = scope.launch(context) {
+        for (call in channel) {
+            call.invoke(listener)
+        }
+    }
+    // Completion handler runs even if the job is cancelled before it starts
+    job.invokeOnCompletion {
+        unregisterListener(proxy)
+        channel.close()
+    }
+    return job
+}
+
+/**
+ * Run [EventsOnThread.NEW_THREAD] and [EventsOnThread.SERIAL_THREAD] deliveries on
+ * [dispatcher], e.g. <code>Dispatchers.IO</code>, instead of threads of default executor.
+ */
+fun EventsBus.setNewThreadDispatcher(dispatcher: CoroutineDispatcher) {
+    this.newThreadExecutor = dispatcher.asExecutor()
+}
+
+/**
+ * Offer a call to channel
+ *
+ * @return False if the call is dropped because channel is full
+ */
+private fun <E> SendChannel<E>.offerCall(call: E): Boolean {
+    return try {
+        offer(call)
+    } catch (e: IllegalStateException) {
+        // Channel is closed or cancelled while the proxy is being unregistered
+        true
+    }
+}
+
+private fun EventsBus.reportDropped(listenerClass: Class<*>, method: Method, tag: String?) {
+    val threadType = method.getAnnotation(EventsOnThread::class.java)?.value
+            ?: EventsOnThread.CURRENT_THREAD
+    monitor?.onDropped(listenerClass, method.name, tag, threadType)
+    tracer?.onDropped(listenerClass, method.name, tag, threadType)
+}
+
+private fun <T : Any> newCallsProxy(
+        listenerClass: Class<T>,
+        onCall: (EventsCall<T>) -> Unit
+): T {
+    val classes = arrayOf<Class<*>>(listenerClass)
+    val proxy = Proxy.newProxyInstance(listenerClass.classLoader, classes) { proxy, method, args ->
+        if (method.declaringClass == Any::class.java) {
+            // Registry compares listeners, so proxies should keep identity semantics
+            when (method.name) {
+                "equals" -> proxy === args!![0]
+                "hashCode" -> System.identityHashCode(proxy)
+                else -> "EventsCall proxy of ${listenerClass.name}"
+            }
+        } else {
+            onCall(EventsCall(method, args))
+            null
+        }
+    }
+    return listenerClass.cast(proxy)
+}
@@ -1,18 +1,33 @@
 package moe.feng.common.eventshelper
 
-inline fun <reified T : Any> EventsHelper.of(tag: String? = null): T {
+inline fun <reified T : Any> EventsBus.of(tag: String? = null): T {
     return this.of(T::class.java, tag)
 }
 
+fun EventsBus.registerListener(vararg listenerPairs: Pair<Any, String?>) {
+    for ((listener, tag) in listenerPairs) {
+        this.registerListener(listener, tag)
+    }
+}
+
+val EventsBus.listeners get() = ListenersCollection(this)
+
+// Keep JVM signatures of extensions published for EventsHelper before EventsBus was split out.
+// They are hidden from Kotlin sources, which resolve to the EventsBus extensions above.
+
+@JvmName("registerListener")
+@Deprecated("Use EventsBus.registerListener instead", level = DeprecationLevel.HIDDEN)
 fun EventsHelper.registerListener(vararg listenerPairs: Pair<Any, String?>) {
     for ((listener, tag) in listenerPairs) {
         this.registerListener(listener, tag)
     }
 }
 
+@get:JvmName("getListeners")
+@Deprecated("Use EventsBus.listeners instead", level = DeprecationLevel.HIDDEN)
 val EventsHelper.listeners get() = ListenersCollection(this)
 
-class ListenersCollection internal constructor(private val eventsHelper: EventsHelper) {
+class ListenersCollection internal constructor(private val eventsHelper: EventsBus) {
 
     operator fun plusAssign(list: List<Any>) {
         for (obj in list) {
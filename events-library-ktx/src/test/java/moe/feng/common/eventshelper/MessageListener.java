@@ -0,0 +1,15 @@
+package moe.feng.common.eventshelper;
+
+/**
+ * Listener of coroutines tests. It is declared in Java, so its helper is generated by
+ * annotation processor of tests.
+ */
+@EventsListener
+public interface MessageListener {
+
+    void onMessage(String message);
+
+    @EventsOnThread(EventsOnThread.NEW_THREAD)
+    void onAsyncMessage(String message);
+
+}
@@ -0,0 +1,208 @@
+package moe.feng.common.eventshelper
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+@ExperimentalCoroutinesApi
+class EventsCoroutinesTest {
+
+    private class RecordingListener : MessageListener {
+
+        val received: MutableList<String> = Collections.synchronizedList(mutableListOf())
+
+        override fun onMessage(message: String) {
+            received.add(message)
+        }
+
+        override fun onAsyncMessage(message: String) {
+            received.add(message)
+        }
+
+    }
+
+    private fun EventsBus.subscriptionCount(): Int {
+        return getSubscriptions(MessageListener::class.java, null).size
+    }
+
+    private suspend fun EventsBus.awaitSubscriptionCount(count: Int) {
+        withTimeout(5_000) {
+            while (subscriptionCount() != count) {
+                delay(10)
+            }
+        }
+    }
+
+    @Test
+    fun callsOfRegistersWhileCollecting() = runBlocking<Unit> {
+        val eventsBus = EventsBus()
+        val calls = eventsBus.callsOf<MessageListener>()
+        assertEquals(0, eventsBus.subscriptionCount())
+
+        val received = async { calls.take(2).toList() }
+        eventsBus.awaitSubscriptionCount(1)
+        val helper = eventsBus.of<MessageListener>()
+        helper.onMessage("a")
+        helper.onMessage("b")
+
+        assertEquals(listOf("onMessage(a)", "onMessage(b)"),
+                received.await().map { it.toString() })
+        // Collection ends after two calls
+        eventsBus.awaitSubscriptionCount(0)
+    }
+
+    @Test
+    fun callsOfUnregistersWhenCancelled() = runBlocking<Unit> {
+        val eventsBus = EventsBus()
+        val job = launch { eventsBus.callsOf<MessageListener>().collect() }
+        eventsBus.awaitSubscriptionCount(1)
+
+        job.cancelAndJoin()
+
+        assertEquals(0, eventsBus.subscriptionCount())
+    }
+
+    @Test
+    fun conflatedCallsKeepLatestOnly() = runBlocking<Unit> {
+        val eventsBus = EventsBus()
+        val firstReceived = CompletableDeferred<Unit>()
+        val release = CompletableDeferred<Unit>()
+        val received = async {
+            eventsBus.callsOf<MessageListener>(capacity = Channel.CONFLATED)
+                    .onEach {
+                        if (!firstReceived.isCompleted) {
+                            // Keep collector busy while later calls arrive
+                            firstReceived.complete(Unit)
+                            release.await()
+                        }
+                    }
+                    .take(2)
+                    .toList()
+        }
+        eventsBus.awaitSubscriptionCount(1)
+        val helper = eventsBus.of<MessageListener>()
+
+        helper.onMessage("a")
+        firstReceived.await()
+        helper.onMessage("b")
+        helper.onMessage("c")
+        helper.onMessage("d")
+        release.complete(Unit)
+
+        assertEquals(listOf("a", "d"), received.await().map { it.arguments[0] })
+    }
+
+    @Test
+    fun sizedBufferReportsDroppedCalls() = runBlocking<Unit> {
+        val eventsBus = EventsBus()
+        val monitor = DefaultEventsMonitor()
+        eventsBus.monitor = monitor
+        val firstReceived = CompletableDeferred<Unit>()
+        val release = CompletableDeferred<Unit>()
+        val received = async {
+            eventsBus.callsOf<MessageListener>(capacity = 1)
+                    .onEach {
+                        if (!firstReceived.isCompleted) {
+                            firstReceived.complete(Unit)
+                            release.await()
+                        }
+                    }
+                    .take(2)
+                    .toList()
+        }
+        eventsBus.awaitSubscriptionCount(1)
+        val helper = eventsBus.of<MessageListener>()
+
+        helper.onMessage("a")
+        firstReceived.await()
+        helper.onMessage("b")
+        helper.onMessage("c")
+        helper.onMessage("d")
+        release.complete(Unit)
+
+        assertEquals(listOf("a", "b"), received.await().map { it.arguments[0] })
+        assertEquals(2L, monitor.snapshot().methods[0].droppedCount)
+    }
+
+    @Test
+    fun registerListenerInUnregistersWhenScopeIsCancelled() = runBlocking<Unit> {
+        val eventsBus = EventsBus()
+        val scope = CoroutineScope(Job())
+        val listener = RecordingListener()
+        val job = eventsBus.registerListenerIn<MessageListener>(scope, listener)
+        // Registered before the coroutine starts
+        assertEquals(1, eventsBus.subscriptionCount())
+
+        eventsBus.of<MessageListener>().onMessage("a")
+        withTimeout(5_000) {
+            while (listener.received.isEmpty()) {
+                delay(10)
+            }
+        }
+        scope.cancel()
+        job.join()
+
+        assertEquals(listOf("a"), listener.received)
+        assertEquals(0, eventsBus.subscriptionCount())
+    }
+
+    @Test
+    fun registerListenerInUnregistersIfCancelledBeforeStart() = runBlocking<Unit> {
+        val eventsBus = EventsBus()
+        val scope = CoroutineScope(Job())
+        scope.cancel()
+
+        val job = eventsBus.registerListenerIn<MessageListener>(scope, RecordingListener())
+        job.join()
+
+        assertTrue(job.isCancelled)
+        assertEquals(0, eventsBus.subscriptionCount())
+    }
+
+    @Test
+    fun newThreadCallsRunOnDispatcher() = runBlocking<Unit> {
+        val executor = Executors.newSingleThreadExecutor()
+        val dispatcher = executor.asCoroutineDispatcher()
+        try {
+            val dispatcherThread = executor.submit(Callable { Thread.currentThread() }).get()
+            val eventsBus = EventsBus()
+            eventsBus.setNewThreadDispatcher(dispatcher)
+            val calledThread = CompletableDeferred<Thread>()
+            eventsBus.registerListener(object : MessageListener {
+                override fun onMessage(message: String) {}
+
+                override fun onAsyncMessage(message: String) {
+                    calledThread.complete(Thread.currentThread())
+                }
+            })
+
+            eventsBus.of<MessageListener>().onAsyncMessage("a")
+
+            assertSame(dispatcherThread, withTimeout(5_000) { calledThread.await() })
+        } finally {
+            dispatcher.close()
+        }
+    }
+
+}